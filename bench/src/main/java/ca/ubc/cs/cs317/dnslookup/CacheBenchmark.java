@@ -0,0 +1,114 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads and writes of the cache, by one thread or by as many threads as there are processors
+ * (the *AllThreads variants; any other count can be set with -t).
+ *
+ * The cache is filled with CACHED_NODES nodes, and is bounded to that size. Keys are drawn from
+ * twice as many nodes, skewed so some cached nodes are much more popular than others:
+ * with the "hits" distribution, 95% of the keys are cached nodes, and with the "misses"
+ * distribution, 90% are nodes never added in the setup. Writes of uncached nodes therefore
+ * insert a node and evict another one, while writes of cached nodes replace a record by one
+ * expiring later. Each distribution runs with the records on and off the heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheBenchmark {
+
+    private static final int CACHED_NODES = 1 << 16;
+    private static final int KEYS_PER_THREAD = 1 << 16; // a power of 2
+
+    @Param({"hits", "misses"})
+    public String distribution;
+
+    @Param({"false", "true"})
+    public boolean offHeap;
+
+    private final DNSCache cache = DNSCache.getInstance();
+    private DNSNode[] nodes;
+    private byte[][] addresses;
+
+    @Setup
+    public void setUp() {
+        cache.setOffHeap(offHeap);
+        cache.setMaximumSize(CACHED_NODES);
+        nodes = new DNSNode[2 * CACHED_NODES];
+        addresses = new byte[nodes.length][];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new DNSNode("host" + i + ".example.com", RecordType.A);
+            addresses[i] = new byte[]{10, (byte) (i >> 16), (byte) (i >> 8), (byte) i};
+        }
+        for (int i = 0; i < CACHED_NODES; i++)
+            cache.addResult(new ResourceRecord(nodes[i].getName(), RecordType.A, 86400, addresses[i]));
+    }
+
+    /**
+     * Sequence of keys read or written by a thread, drawn once so the benchmark only measures
+     * the cache.
+     */
+    @State(Scope.Thread)
+    public static class Keys {
+        private final int[] keys = new int[KEYS_PER_THREAD];
+        private int next;
+
+        @Setup
+        public void setUp(CacheBenchmark benchmark) {
+            Random random = new Random(Thread.currentThread().getId());
+            double hitShare = benchmark.distribution.equals("hits") ? 0.95 : 0.1;
+            for (int i = 0; i < keys.length; i++) {
+                double skewed = Math.pow(random.nextDouble(), 3); // low indexes are the most popular
+                int index = (int) (skewed * CACHED_NODES);
+                keys[i] = random.nextDouble() < hitShare ? index : CACHED_NODES + index;
+            }
+        }
+
+        private int next() {
+            return keys[next++ & (KEYS_PER_THREAD - 1)];
+        }
+    }
+
+    @Benchmark
+    public Set<ResourceRecord> getCachedResults(Keys keys) {
+        return cache.getCachedResults(nodes[keys.next()]);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Set<ResourceRecord> getCachedResultsAllThreads(Keys keys) {
+        return cache.getCachedResults(nodes[keys.next()]);
+    }
+
+    @Benchmark
+    public void addResult(Keys keys) {
+        int key = keys.next();
+        cache.addResult(new ResourceRecord(nodes[key].getName(), RecordType.A, 86400, addresses[key]));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void addResultAllThreads(Keys keys) {
+        int key = keys.next();
+        cache.addResult(new ResourceRecord(nodes[key].getName(), RecordType.A, 86400, addresses[key]));
+    }
+}
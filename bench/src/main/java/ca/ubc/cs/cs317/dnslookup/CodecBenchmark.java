@@ -0,0 +1,90 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding queries and decoding responses. The responses are shaped like real ones: a referral
+ * from a root server to the 13 servers of a top-level domain, with their IPv4 and IPv6 glue,
+ * and an authoritative answer with a CNAME and the addresses of its target. Names in both are
+ * compressed, and both end with an OPT record.
+ *
+ * decodeReferral and decodeAnswer build a complete DNSMessage, as the resolver does for every
+ * response; skimReferral only moves the flyweight cursor over the records and reads their types.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    private final DNSMessageEncoder encoder = new DNSMessageEncoder();
+    private final DNSMessageDecoder decoder = new DNSMessageDecoder();
+    private final ByteBuffer query = ByteBuffer.allocate(DNSMessageEncoder.MAX_QUERY_SIZE);
+    private final DNSNode node = new DNSNode("www.example.com", RecordType.A);
+    private ByteBuffer referral;
+    private ByteBuffer answer;
+    private int queryId;
+
+    @Setup
+    public void setUp() {
+        DNSResponseWriter writer = new DNSResponseWriter(0x1234, DNSResponseWriter.REFERRAL, "www.example.com", RecordType.A.getCode());
+        for (char server = 'a'; server <= 'm'; server++)
+            writer.name(DNSResponseWriter.AUTHORITY, "com", RecordType.NS, 172800, server + ".gtld-servers.net");
+        for (int i = 0; i < 13; i++)
+            writer.address(DNSResponseWriter.ADDITIONAL, (char) ('a' + i) + ".gtld-servers.net", 172800,
+                    new byte[]{(byte) 192, 5, 6, (byte) (30 + i)});
+        for (int i = 0; i < 13; i++)
+            writer.address(DNSResponseWriter.ADDITIONAL, (char) ('a' + i) + ".gtld-servers.net", 172800,
+                    new byte[]{0x20, 0x01, 0x05, 0x03, (byte) i, 0x31, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0x30});
+        referral = writer.opt(1232).toBuffer();
+
+        answer = new DNSResponseWriter(0x1234, DNSResponseWriter.AUTHORITATIVE, "www.example.com", RecordType.A.getCode())
+                .name(DNSResponseWriter.ANSWER, "www.example.com", RecordType.CNAME, 300, "www.example.com.edge.example.net")
+                .address(DNSResponseWriter.ANSWER, "www.example.com.edge.example.net", 60, new byte[]{93, (byte) 184, (byte) 216, 34})
+                .address(DNSResponseWriter.ANSWER, "www.example.com.edge.example.net", 60, new byte[]{93, (byte) 184, (byte) 216, 35})
+                .opt(1232)
+                .toBuffer();
+    }
+
+    @Benchmark
+    public ByteBuffer encodeQuery() {
+        encoder.encodeQuery(queryId++ & 0xFFFF, node, query);
+        return query;
+    }
+
+    @Benchmark
+    public DNSMessage decodeReferral() {
+        return decoder.reset(referral).decode();
+    }
+
+    @Benchmark
+    public DNSMessage decodeAnswer() {
+        return decoder.reset(answer).decode();
+    }
+
+    @Benchmark
+    public int skimReferral() {
+        decoder.reset(referral).skipQuestions();
+        int records = decoder.getAnCount() + decoder.getNsCount() + decoder.getArCount();
+        int types = 0;
+        for (int i = 0; i < records; i++) {
+            decoder.nextRecord();
+            types += decoder.getRecordType();
+        }
+        return types;
+    }
+}
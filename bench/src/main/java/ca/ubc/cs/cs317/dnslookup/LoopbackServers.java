@@ -0,0 +1,116 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A root server, a top-level domain server and an authoritative server, answering over UDP on
+ * 127.0.0.1, 127.0.0.2 and 127.0.0.3 respectively, all on the same port. They let the
+ * benchmarks run complete resolutions without leaving the machine. Linux routes all of 127/8 to
+ * the loopback interface; on other systems, 127.0.0.2 and 127.0.0.3 may have to be added as
+ * aliases of the loopback interface first.
+ *
+ * The root server refers every name to its top-level domain, whose server refers it to the zone
+ * made of its last two labels. The authoritative server answers A queries for any name with
+ * 10.0.0.1, and other queries with no data.
+ */
+class LoopbackServers implements Closeable {
+
+    static final String ROOT = "127.0.0.1";
+    static final String TLD = "127.0.0.2";
+    static final String AUTHORITY = "127.0.0.3";
+
+    private final List<DatagramChannel> channels = new ArrayList<>();
+
+    LoopbackServers(int port) throws IOException {
+        try {
+            serve(ROOT, port, this::root);
+            serve(TLD, port, this::topLevelDomain);
+            serve(AUTHORITY, port, this::authority);
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (DatagramChannel channel : channels)
+            channel.close();
+    }
+
+    private ByteBuffer root(int queryId, DomainName qname, int qtype) {
+        String tld = qname.toString().substring(qname.toString().lastIndexOf('.') + 1);
+        return new DNSResponseWriter(queryId, DNSResponseWriter.REFERRAL, qname.toString(), qtype)
+                .name(DNSResponseWriter.AUTHORITY, tld, RecordType.NS, 172800, "a.nic." + tld)
+                .address(DNSResponseWriter.ADDITIONAL, "a.nic." + tld, 172800, addressOf(TLD))
+                .toBuffer();
+    }
+
+    private ByteBuffer topLevelDomain(int queryId, DomainName qname, int qtype) {
+        DomainName zone = qname;
+        while (zone.getParent() != null && zone.getParent().getParent() != null && !zone.getParent().getParent().isRoot())
+            zone = zone.getParent();
+        return new DNSResponseWriter(queryId, DNSResponseWriter.REFERRAL, qname.toString(), qtype)
+                .name(DNSResponseWriter.AUTHORITY, zone.toString(), RecordType.NS, 86400, "ns1." + zone)
+                .address(DNSResponseWriter.ADDITIONAL, "ns1." + zone, 86400, addressOf(AUTHORITY))
+                .toBuffer();
+    }
+
+    private ByteBuffer authority(int queryId, DomainName qname, int qtype) {
+        DNSResponseWriter writer = new DNSResponseWriter(queryId, DNSResponseWriter.AUTHORITATIVE, qname.toString(), qtype);
+        if (qtype == RecordType.A.getCode())
+            writer.address(DNSResponseWriter.ANSWER, qname.toString(), 3600, new byte[]{10, 0, 0, 1});
+        else
+            writer.soa(DNSResponseWriter.AUTHORITY, qname.getParent().toString(), 3600, 300);
+        return writer.toBuffer();
+    }
+
+    private void serve(String address, int port, Responder responder) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channels.add(channel);
+        channel.bind(new InetSocketAddress(address, port));
+
+        Thread thread = new Thread(() -> {
+            ByteBuffer query = ByteBuffer.allocate(DNSMessageEncoder.MAX_QUERY_SIZE);
+            try {
+                while (true) {
+                    query.clear();
+                    SocketAddress client = channel.receive(query);
+                    query.flip();
+                    int queryId = query.getShort(0) & 0xFFFF;
+                    query.position(12);
+                    DomainName qname = DomainName.readFrom(query);
+                    int qtype = query.getShort() & 0xFFFF;
+                    channel.send(responder.respond(queryId, qname, qtype), client);
+                }
+            } catch (ClosedChannelException ex) {
+                // servers closed
+            } catch (IOException | RuntimeException ex) {
+                System.err.println("Loopback server " + address + " stopped: " + ex);
+            }
+        }, "loopback-dns-" + address);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static byte[] addressOf(String address) {
+        try {
+            return InetAddress.getByName(address).getAddress();
+        } catch (IOException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+
+    private interface Responder {
+        ByteBuffer respond(int queryId, DomainName qname, int qtype);
+    }
+}
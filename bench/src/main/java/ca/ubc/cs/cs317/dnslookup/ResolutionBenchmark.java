@@ -0,0 +1,77 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Complete resolutions through getResults(), against the servers of LoopbackServers:
+ * cachedName resolves a name already in the cache, newHost a new name in a zone whose
+ * delegation is cached (one query, to the authoritative server), and newZone a name in a new
+ * zone of a cached top-level domain (two queries, to the top-level domain server and then to
+ * the authoritative server).
+ *
+ * The servers listen on an unprivileged port, set with -p port=N if the default is in use.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResolutionBenchmark {
+
+    @Param("15353")
+    public int port;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private LoopbackServers servers;
+
+    @Setup
+    public void setUp() throws IOException {
+        servers = new LoopbackServers(port);
+        DNSLookupService.start(InetAddress.getByName(LoopbackServers.ROOT), port);
+        if (resolve("www.example.com").isEmpty())
+            throw new IllegalStateException("No answer from the loopback servers on port " + port);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        DNSLookupService.stop();
+        servers.close();
+    }
+
+    @Benchmark
+    public Set<ResourceRecord> cachedName() {
+        return resolve("www.example.com");
+    }
+
+    @Benchmark
+    public Set<ResourceRecord> newHost() {
+        return resolve("host" + sequence.incrementAndGet() + ".example.com");
+    }
+
+    @Benchmark
+    public Set<ResourceRecord> newZone() {
+        return resolve("www.zone" + sequence.incrementAndGet() + ".com");
+    }
+
+    private static Set<ResourceRecord> resolve(String hostName) {
+        return DNSLookupService.resolve(new DNSNode(hostName, RecordType.A));
+    }
+}
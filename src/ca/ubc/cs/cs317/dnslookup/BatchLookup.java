@@ -0,0 +1,186 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Resolves a list of host names, one per line, optionally followed by a record type (A by
+ * default). Lines are read one at a time as resolutions complete, so lists of any size can be
+ * resolved, and at most a given number of resolutions are in progress at the same time.
+ *
+ * The results of each name are written as soon as its resolution completes, so they are not
+ * necessarily in the order of the input. They are written either in the layout of the lookup
+ * command, or as JSON lines: one object per name, with its records and resolution time. Every
+ * name gets its output, even when it is invalid or its resolution fails with an error (in JSON,
+ * an object with the error instead of the records), and counts as a name without results.
+ */
+public class BatchLookup {
+
+    public static final int DEFAULT_CONCURRENCY = 64;
+
+    private final int concurrency;
+    private final boolean json;
+    private final Writer out;
+    private final LatencyHistogram latency = new LatencyHistogram(); // in microseconds
+    private final AtomicLong failureCount = new AtomicLong();
+    private IOException writeError;
+
+    /**
+     * @param concurrency Maximum number of names resolved at the same time.
+     * @param json        true to write the results as JSON lines, false to use the layout of
+     *                    the lookup command.
+     * @param out         Writer receiving the results. It should be buffered; it is flushed,
+     *                    but not closed, once every name is resolved.
+     */
+    public BatchLookup(int concurrency, boolean json, Writer out) {
+        this.concurrency = concurrency;
+        this.json = json;
+        this.out = out;
+    }
+
+    /**
+     * Resolves every name read from a source of lines, and waits until all of them are
+     * resolved. Empty lines and anything after a comment character are ignored.
+     *
+     * @param lines Gives the next line of input, or null at the end of the input.
+     * @return The time taken to resolve all names, in nanoseconds.
+     * @throws IOException if the results could not be written.
+     */
+    public long run(Supplier<String> lines) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "dns-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Semaphore permits = new Semaphore(concurrency);
+        long start = System.nanoTime();
+        try {
+            String line;
+            while ((line = lines.get()) != null) {
+                String[] fields = line.split("#", 2)[0].trim().split("\\s+");
+                if (fields[0].isEmpty())
+                    continue;
+                permits.acquire();
+                pool.execute(() -> {
+                    try {
+                        lookup(fields);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        synchronized (out) {
+            if (writeError != null)
+                throw writeError;
+            out.flush();
+        }
+        return elapsed;
+    }
+
+    /**
+     * Prints the number of names resolved, the throughput and the percentiles of the time taken
+     * to resolve a name.
+     *
+     * @param elapsed Time taken by run(), in nanoseconds.
+     * @param summary Stream the summary is printed to.
+     */
+    public void printSummary(long elapsed, PrintStream summary) {
+        long count = latency.getCount();
+        double seconds = elapsed / 1e9;
+        summary.printf("Resolved %d names in %.2f s (%.1f names/s), %d without results\n",
+                count, seconds, seconds > 0 ? count / seconds : 0, failureCount.get());
+        summary.printf("Latency (ms): p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f\n",
+                latency.getValueAtPercentile(50) / 1e3, latency.getValueAtPercentile(90) / 1e3,
+                latency.getValueAtPercentile(99) / 1e3, latency.getValueAtPercentile(99.9) / 1e3,
+                latency.getMaxValue() / 1e3);
+    }
+
+    private void lookup(String[] fields) {
+        long start = System.nanoTime();
+        DNSNode node = null;
+        Set<ResourceRecord> results = null;
+        String error = null;
+        try {
+            RecordType type = fields.length > 1 ? RecordType.valueOf(fields[1].toUpperCase()) : RecordType.A;
+            node = new DNSNode(fields[0], type);
+            results = DNSLookupService.resolve(node);
+        } catch (RuntimeException ex) {
+            // an invalid name or type, or a failure of the resolver (e.g., a full record store):
+            // either way the name still gets its line, so the output matches the input
+            error = String.valueOf(ex.getMessage());
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        latency.record(micros);
+        if (results == null || results.isEmpty())
+            failureCount.incrementAndGet();
+
+        String output;
+        if (!json)
+            output = results == null ? String.format("%-30s %-5s %-8d %s\n", fields[0],
+                    node != null ? node.getType() : fields.length > 1 ? fields[1] : RecordType.A, -1, "0.0.0.0")
+                    : DNSLookupService.formatResults(fields[0], node.getType(), results);
+        else if (results == null)
+            output = "{\"name\":" + quote(fields[0]) + ",\"error\":" + quote(error) + "}\n";
+        else
+            output = toJson(fields[0], node, results, micros);
+        write(output);
+    }
+
+    private void write(String output) {
+        synchronized (out) {
+            if (writeError != null)
+                return;
+            try {
+                out.write(output);
+            } catch (IOException ex) {
+                writeError = ex;
+            }
+        }
+    }
+
+    private static String toJson(String hostName, DNSNode node, Set<ResourceRecord> results, long micros) {
+        StringBuilder json = new StringBuilder(128);
+        json.append("{\"name\":").append(quote(hostName))
+                .append(",\"type\":\"").append(node.getType())
+                .append("\",\"time_ms\":").append(String.format(Locale.ROOT, "%.3f", micros / 1e3))
+                .append(",\"records\":[");
+        boolean first = true;
+        for (ResourceRecord record : results) {
+            if (!first)
+                json.append(',');
+            first = false;
+            json.append("{\"ttl\":").append(record.getTTL())
+                    .append(",\"data\":").append(quote(record.getTextResult())).append('}');
+        }
+        return json.append("]}\n").toString();
+    }
+
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\')
+                quoted.append('\\').append(c);
+            else if (c < 0x20)
+                quoted.append(String.format("\\u%04x", (int) c));
+            else
+                quoted.append(c);
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,66 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of equally sized byte buffers. Buffers are handed out by acquire() and should be given
+ * back with release() once their content is no longer needed, so that receiving a datagram does
+ * not require a new allocation. Buffers are heap buffers, so their backing array is available.
+ */
+public class BufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * Creates an empty pool. Buffers are allocated on demand, and at most maxPooled idle buffers
+     * are kept for reuse.
+     *
+     * @param bufferSize Size, in bytes, of each buffer.
+     * @param maxPooled  Maximum number of idle buffers kept in the pool.
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Returns a cleared buffer, either reused from the pool or newly allocated.
+     *
+     * @return A buffer with position 0 and limit equal to its capacity.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null)
+            return ByteBuffer.allocate(bufferSize);
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer back to the pool. The buffer must not be used by the caller afterwards.
+     * Buffers of a different size, or beyond the pool capacity, are left for the garbage
+     * collector.
+     *
+     * @param buffer Buffer previously obtained from acquire().
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != bufferSize)
+            return;
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        buffers.offer(buffer);
+    }
+}
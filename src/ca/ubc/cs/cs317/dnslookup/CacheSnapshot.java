@@ -0,0 +1,152 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Saves the content of a DNS cache to a file, and loads it back, so a resolver that restarts
+ * does not have to query the root and top-level domain servers again for every name.
+ *
+ * The file is a compact binary format: a header (magic number, version, and the number of
+ * records and negative results), followed by each record and each negative result. Names are
+ * stored in wire format, results as written by ResourceRecord.writeResult(), and expiration
+ * times are absolute, so a snapshot can be loaded any time later: records that expired since
+ * it was saved are skipped. Snapshots are loaded through a memory-mapped file, and written
+ * to a temporary file that then replaces the previous snapshot, so a crash while saving
+ * never leaves a partial snapshot behind.
+ */
+public class CacheSnapshot {
+
+    private static final int MAGIC = 0x444E5343; // "DNSC"
+    private static final short VERSION = 2; // 1 stored the length of text results in a short
+
+    /**
+     * Writes every record and negative result of a cache to a file, replacing the file if it
+     * exists.
+     *
+     * @param cache Cache to be saved.
+     * @param file  Path of the snapshot.
+     * @return The number of records and negative results saved.
+     * @throws IOException if the snapshot could not be written.
+     */
+    public static int save(DNSCache cache, Path file) throws IOException {
+        List<ResourceRecord> records = new ArrayList<>();
+        cache.forEachRecord((node, record) -> records.add(record));
+        List<NegativeResult> negativeResults = new ArrayList<>();
+        cache.forEachNegativeResult(negativeResults::add);
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        ByteBuffer scratch = ByteBuffer.allocate(1024);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(records.size());
+            out.writeInt(negativeResults.size());
+
+            for (ResourceRecord record : records) {
+                while (!encode(record, scratch))
+                    scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+                out.write(scratch.array(), 0, scratch.position());
+            }
+            for (NegativeResult result : negativeResults) {
+                writeName(out, scratch, result.getNode().getName());
+                out.writeShort(result.getNode().getType().getCode());
+                out.writeLong(result.getExpirationTime());
+                out.writeBoolean(result.isNameError());
+            }
+        }
+
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return records.size() + negativeResults.size();
+    }
+
+    /**
+     * Adds the records and negative results of a snapshot to a cache, except those that have
+     * expired since the snapshot was saved.
+     *
+     * @param cache Cache the snapshot is loaded into.
+     * @param file  Path of the snapshot.
+     * @return The number of records and negative results added to the cache.
+     * @throws IOException if the snapshot could not be read, or is not a valid snapshot.
+     */
+    public static int load(DNSCache cache, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC)
+                throw new IOException("Not a cache snapshot: " + file);
+            short version = in.getShort();
+            if (version != VERSION)
+                throw new IOException("Unsupported cache snapshot version " + version + ": " + file);
+            int recordCount = in.getInt();
+            int negativeCount = in.getInt();
+
+            long now = System.currentTimeMillis();
+            int loaded = 0;
+            for (int i = 0; i < recordCount; i++) {
+                DomainName name = DomainName.readFrom(in);
+                RecordType type = RecordType.getByCode(in.getShort() & 0xFFFF);
+                long expirationTime = in.getLong();
+                ResourceRecord record = ResourceRecord.readResult(in, name, type);
+                if (expirationTime <= now)
+                    continue;
+                record.setExpirationTime(expirationTime);
+                cache.addResult(record);
+                loaded++;
+            }
+            for (int i = 0; i < negativeCount; i++) {
+                DNSNode node = new DNSNode(DomainName.readFrom(in), RecordType.getByCode(in.getShort() & 0xFFFF));
+                long expirationTime = in.getLong();
+                boolean nameError = in.get() != 0;
+                if (expirationTime <= now)
+                    continue;
+                cache.addNegativeResult(NegativeResult.expiringAt(node, expirationTime, nameError));
+                loaded++;
+            }
+            return loaded;
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            throw new IOException("Corrupted cache snapshot: " + file, ex);
+        }
+    }
+
+    /**
+     * Encodes a record in a buffer: its name, type, expiration time and result.
+     *
+     * @return true if the record was encoded between position 0 and the position of the buffer,
+     * or false if the buffer is too small.
+     */
+    private static boolean encode(ResourceRecord record, ByteBuffer out) {
+        out.clear();
+        try {
+            record.getNode().getName().writeTo(out);
+            out.putShort((short) record.getType().getCode());
+            out.putLong(record.getExpirationTime());
+            record.writeResult(out);
+            return true;
+        } catch (BufferOverflowException ex) {
+            return false;
+        }
+    }
+
+    private static void writeName(DataOutputStream out, ByteBuffer scratch, DomainName name) throws IOException {
+        scratch.clear();
+        name.writeTo(scratch);
+        out.write(scratch.array(), 0, scratch.position());
+    }
+}
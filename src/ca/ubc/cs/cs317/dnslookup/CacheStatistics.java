@@ -0,0 +1,61 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+/**
+ * A snapshot of the counters kept by the DNS cache, which can be used to decide how large the
+ * cache should be.
+ */
+public class CacheStatistics {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long expirationCount;
+    private final int size;
+    private final int maximumSize;
+
+    public CacheStatistics(long hitCount, long missCount, long evictionCount, long expirationCount,
+                           int size, int maximumSize) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.expirationCount = expirationCount;
+        this.size = size;
+        this.maximumSize = maximumSize;
+    }
+
+    /** Number of lookups answered from the cache, including cached negative answers. */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /** Number of lookups for which servers had to be queried. */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /** Ratio of lookups answered from the cache, or 0 if there was no lookup. */
+    public double getHitRate() {
+        long total = hitCount + missCount;
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /** Number of nodes removed from the cache to respect its maximum size. */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /** Number of records removed from the cache because their TTL ended. */
+    public long getExpirationCount() {
+        return expirationCount;
+    }
+
+    /** Number of nodes currently in the cache. */
+    public int getSize() {
+        return size;
+    }
+
+    /** Maximum number of nodes kept in the cache. */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+}
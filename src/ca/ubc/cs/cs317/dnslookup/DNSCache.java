@@ -1,92 +1,580 @@
-package ca.ubc.cs.cs317.dnslookup;
-
-import java.util.*;
-import java.util.function.BiConsumer;
-
-/** This class handles a cache of DNS results. It is based on a map that links nodes (queries)
- * to a set of resource records (results). Cached results are only maintained for the duration
- * of the TTL (time-to-live) returned by the server, and are deleted before being returned to
- * the user.
- */
-public class DNSCache {
-
-    private static DNSCache instance = new DNSCache();
-
-    private Map<DNSNode, Map<ResourceRecord, ResourceRecord>> cachedResults = new TreeMap<>();
-
-    /** Singleton retrieval method. Only one instance of the DNS cache can be created. This
-     * method returns the single DNS cache instance.
-     *
-     * @return Instance of a DNS cache.
-     */
-    public static DNSCache getInstance() {
-        return instance;
-    }
-
-    /** Returns a set of resource records already cached for a particular query. If no results
-     * are cached for the specified query, returns an empty set. Expired results are removed
-     * from the cache before being returned. This method does not perform the query itself, it
-     * only returns previously cached results.
-     *
-     * @param node DNS query (host name and record type) to obtain cached results.
-     * @return A potentially empty set of resources associated to the query.
-     */
-    public Set<ResourceRecord> getCachedResults(DNSNode node) {
-        Map<ResourceRecord, ResourceRecord> results = cachedResults.get(node);
-        if (results == null)
-            return Collections.emptySet();
-
-        results.keySet().removeIf(record -> !record.isStillValid());
-        return Collections.unmodifiableSet(results.keySet());
-    }
-
-    /** Adds a specific resource record to the DNS cache. If the cache already has an equivalent
-     * resource record, the existing record is replaced if the new one expires after the existing
-     * record, otherwise the existing record is maintained.
-     *
-     * @param record Resource record, possibly obtained from a DNS server, containing the result
-     *               of a DNS query.
-     */
-    public void addResult(ResourceRecord record) {
-
-        if (!record.isStillValid()) return;
-
-        Map<ResourceRecord, ResourceRecord> results = cachedResults.get(record.getNode());
-        if (results == null) {
-            results = new HashMap<>();
-            cachedResults.put(record.getNode(), results);
-        }
-
-        ResourceRecord oldRecord = results.get(record);
-        if (oldRecord == null || oldRecord.expiresBefore(record))
-            results.put(record, record);
-    }
-
-    /** Perform a specific action for each query and its set of cached records. This action can
-     * be specified using a lambda expression or method name. Expired records are removed before
-     * the action is performed.
-     *
-     * @param consumer Action to be performed for each query and set of records.
-     */
-    public void forEachNode(BiConsumer<DNSNode, Set<ResourceRecord>> consumer) {
-        for (Map.Entry<DNSNode, Map<ResourceRecord, ResourceRecord>> entry : cachedResults.entrySet()) {
-            entry.getValue().keySet().removeIf(record -> !record.isStillValid());
-            if (!entry.getValue().keySet().isEmpty())
-                consumer.accept(entry.getKey(), entry.getValue().keySet());
-        }
-    }
-
-    /** Perform a specific action for each query and individual record. This action can be
-     * specified using a lambda expression or method name. Expired records are removed before
-     * the action is performed.
-     *
-     * @param consumer Action to be performed for each query and record.
-     */
-    public void forEachRecord(BiConsumer<DNSNode, ResourceRecord> consumer) {
-        for (Map.Entry<DNSNode, Map<ResourceRecord, ResourceRecord>> entry : cachedResults.entrySet()) {
-            entry.getValue().keySet().removeIf(record -> !record.isStillValid());
-            entry.getValue().keySet().forEach(record -> consumer.accept(entry.getKey(), record));
-        }
-    }
-
-}
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/** This class handles a cache of DNS results. It is based on a map that links nodes (queries)
+ * to a set of resource records (results). Cached results are only maintained for the duration
+ * of the TTL (time-to-live) returned by the server. Each node is scheduled in a timing wheel for
+ * the expiration of its earliest record, and its records are removed from the cache shortly
+ * before they expire, so lookups never need to check the expiration time of the records they
+ * return.
+ *
+ * The cache also keeps negative results (RFC 2308): nodes for which an authoritative server
+ * answered that the host name does not exist, or has no record of the requested type. A node
+ * has either cached records or a negative result, never both.
+ *
+ * Nodes read often are refreshed ahead of time: when such a node reaches the last part of the
+ * TTL of its records (10% by default), it is reported to a refresh listener, which can resolve it
+ * again in the background and add the new records before the old ones expire. Only nodes read
+ * at least REFRESH_MIN_HITS times since their records were added are refreshed.
+ *
+ * The number of nodes in the cache is bounded. When the cache is full, a W-TinyLFU policy
+ * decides which node is evicted, so frequently used nodes (e.g., name servers of top-level
+ * domains) stay in the cache while nodes used only once are evicted first.
+ *
+ * The cache may be shared by concurrent resolutions. Each node is linked to an immutable set of
+ * records that is replaced as a whole when a record is added or expires, so the sets returned to
+ * callers are not affected by later changes to the cache. The sets are kept in a record store:
+ * on the heap by default, where reads never lock, or off the heap for caches with millions of
+ * nodes (see setOffHeap()). Reads are recorded in a lossy buffer, and given to the eviction
+ * policy in batches by whichever thread holds the maintenance lock. Changes to the cache are made
+ * while holding that lock.
+ */
+public class DNSCache {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 100000;
+    private static final long EXPIRY_TICK_MILLIS = 100;
+    private static final double DEFAULT_REFRESH_SHARE = 0.1;
+    private static final int REFRESH_MIN_HITS = 2;
+
+    private static DNSCache instance = new DNSCache(DEFAULT_MAXIMUM_SIZE);
+
+    private volatile RecordStore cachedResults = new HeapRecordStore();
+    private final Map<DNSNode, NegativeResult> negativeResults = new ConcurrentHashMap<>();
+
+    // the following fields may only be used while holding the maintenance lock
+    private final Lock maintenanceLock = new ReentrantLock();
+    private final TimerWheel<DNSNode> expiryWheel =
+            new TimerWheel<>(EXPIRY_TICK_MILLIS, System.currentTimeMillis() + EXPIRY_TICK_MILLIS);
+    private final Map<DNSNode, TimerWheel.Timer<DNSNode>> expiryTimers = new HashMap<>();
+    private final TimerWheel<NegativeResult> negativeExpiryWheel =
+            new TimerWheel<>(EXPIRY_TICK_MILLIS, System.currentTimeMillis() + EXPIRY_TICK_MILLIS);
+    private final Map<DNSNode, TimerWheel.Timer<NegativeResult>> negativeExpiryTimers = new HashMap<>();
+    private final TimerWheel<RefreshEntry> refreshWheel =
+            new TimerWheel<>(EXPIRY_TICK_MILLIS, System.currentTimeMillis() + EXPIRY_TICK_MILLIS);
+    private final Map<DNSNode, RefreshEntry> refreshEntries = new HashMap<>();
+    private final TinyLfuPolicy<DNSNode> evictionPolicy;
+
+    private final ReadBuffer<DNSNode> readBuffer = new ReadBuffer<>();
+    private volatile long nextExpiryCheck = expiryWheel.nextTickTime() - EXPIRY_TICK_MILLIS;
+    private volatile double refreshShare = DEFAULT_REFRESH_SHARE;
+    private volatile Consumer<DNSNode> refreshListener;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder expirationCount = new LongAdder();
+
+    DNSCache(int maximumSize) { // package-private so tests can use a cache of their own
+        evictionPolicy = new TinyLfuPolicy<>(maximumSize);
+    }
+
+    /** Singleton retrieval method. Only one instance of the DNS cache can be created. This
+     * method returns the single DNS cache instance.
+     *
+     * @return Instance of a DNS cache.
+     */
+    public static DNSCache getInstance() {
+        return instance;
+    }
+
+    /** Returns a set of resource records already cached for a particular query. If no results
+     * are cached for the specified query, returns an empty set. This method does not perform
+     * the query itself, it only returns previously cached results. The lookup is counted as a
+     * hit or a miss.
+     *
+     * @param node DNS query (host name and record type) to obtain cached results.
+     * @return A potentially empty set of resources associated to the query.
+     */
+    public Set<ResourceRecord> getCachedResults(DNSNode node) {
+        Set<ResourceRecord> results = peek(node);
+        recordLookup(!results.isEmpty());
+        return results;
+    }
+
+    /** Returns the records cached for a query like getCachedResults(), without counting the
+     * lookup. Used for the reads that are only part of a larger lookup (e.g., following CNAME
+     * records during a resolution), which is counted once with recordLookup().
+     *
+     * @param node DNS query (host name and record type) to obtain cached results.
+     * @return A potentially empty set of resources associated to the query.
+     */
+    Set<ResourceRecord> peek(DNSNode node) {
+        Set<ResourceRecord> results = cachedResults.get(node);
+        if (results == null) {
+            if (System.currentTimeMillis() >= nextExpiryCheck)
+                tryMaintenance();
+            return Collections.emptySet();
+        }
+
+        if (readBuffer.offer(node) || System.currentTimeMillis() >= nextExpiryCheck)
+            tryMaintenance();
+        return results;
+    }
+
+    /** Counts a lookup in the cache statistics.
+     *
+     * @param hit true if the lookup was answered from the cache, false otherwise.
+     */
+    void recordLookup(boolean hit) {
+        if (hit)
+            hitCount.increment();
+        else
+            missCount.increment();
+    }
+
+    /** Finds the name servers of the deepest zone enclosing a name that the cache knows how to
+     * reach. The zones are searched from the name itself up to the root, and a zone is usable
+     * if the cache has one of its NS records along with an A record for the name server this
+     * record designates. Cached delegations thus work as an index of zone cuts, so a resolution
+     * can start at the closest known name servers instead of at the root.
+     *
+     * These lookups are not counted as hits or misses, but keep the records they use popular.
+     *
+     * @param name Domain name being resolved.
+     * @return The addresses of the name servers of the closest enclosing zone, or an empty list
+     * if no enclosing zone (including the root) has a usable delegation in the cache.
+     */
+    public List<InetAddress> findClosestNameServers(DomainName name) {
+        for (DomainName zone = name; zone != null; zone = zone.getParent()) {
+            DNSNode zoneNode = new DNSNode(zone, RecordType.NS);
+            Set<ResourceRecord> nameServers = cachedResults.get(zoneNode);
+            if (nameServers == null)
+                continue;
+
+            List<InetAddress> servers = new ArrayList<>();
+            boolean drain = false;
+            for (ResourceRecord nameServer : nameServers) {
+                DNSNode addressNode = new DNSNode(nameServer.getNameResult(), RecordType.A);
+                Set<ResourceRecord> addresses = cachedResults.get(addressNode);
+                if (addresses == null)
+                    continue;
+                drain |= readBuffer.offer(addressNode);
+                for (ResourceRecord address : addresses)
+                    if (!servers.contains(address.getInetResult()))
+                        servers.add(address.getInetResult());
+            }
+            if (!servers.isEmpty()) {
+                if (readBuffer.offer(zoneNode) || drain)
+                    tryMaintenance();
+                return servers;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /** Returns the negative result cached for a particular query, if any. A query with a negative
+     * result should not be sent to a server again until the result expires.
+     *
+     * @param node DNS query (host name and record type) to obtain the negative result.
+     * @return The negative result associated to the query, or null if there is none.
+     */
+    public NegativeResult getNegativeResult(DNSNode node) {
+        NegativeResult result = negativeResults.get(node);
+        if ((result != null && readBuffer.offer(node)) || System.currentTimeMillis() >= nextExpiryCheck)
+            tryMaintenance();
+        return result;
+    }
+
+    /** Adds a negative result to the DNS cache, replacing any negative result for the same node.
+     * Negative results are not added for nodes that have cached records.
+     *
+     * @param result Negative result, obtained from an authoritative DNS server.
+     */
+    public void addNegativeResult(NegativeResult result) {
+        DNSNode node = result.getNode();
+
+        maintenanceLock.lock();
+        try {
+            maintenance();
+            if (cachedResults.containsKey(node))
+                return;
+
+            TimerWheel.Timer<NegativeResult> timer = negativeExpiryWheel.schedule(result, result.getExpirationTime());
+            if (timer == null)
+                return;
+
+            TimerWheel.Timer<NegativeResult> replaced = negativeExpiryTimers.put(node, timer);
+            if (replaced != null)
+                negativeExpiryWheel.cancel(replaced);
+            negativeResults.put(node, result);
+
+            if (replaced == null)
+                for (DNSNode evicted : evictionPolicy.onInsert(node))
+                    evict(evicted);
+        } finally {
+            maintenanceLock.unlock();
+        }
+    }
+
+    /** Adds a specific resource record to the DNS cache. If the cache already has an equivalent
+     * resource record, the existing record is replaced if the new one expires after the existing
+     * record, otherwise the existing record is maintained. Adding a record to a node that is not
+     * in the cache may cause another node to be evicted, and removes any negative result cached
+     * for the node.
+     *
+     * @param record Resource record, possibly obtained from a DNS server, containing the result
+     *               of a DNS query.
+     */
+    public void addResult(ResourceRecord record) {
+        DNSNode node = record.getNode();
+
+        maintenanceLock.lock();
+        try {
+            maintenance();
+
+            Set<ResourceRecord> current = cachedResults.get(node);
+            ResourceRecord replaced = current == null ? null : findEquivalent(current, record);
+            if (replaced != null && !replaced.expiresBefore(record))
+                return;
+
+            if (record.getExpirationTime() < expiryWheel.nextTickTime())
+                return; // expires before the next expiry check
+
+            Set<ResourceRecord> updated = withRecord(current, replaced, record);
+            cachedResults.put(node, updated);
+            scheduleExpiry(node, updated);
+            scheduleRefresh(node, record);
+
+            boolean wasNegative = removeNegative(node);
+            if (current == null && !wasNegative)
+                for (DNSNode evicted : evictionPolicy.onInsert(node))
+                    evict(evicted);
+        } finally {
+            maintenanceLock.unlock();
+        }
+    }
+
+    /** Perform a specific action for each query and its set of cached records. This action can
+     * be specified using a lambda expression or method name. Expired records are removed before
+     * the action is performed. Nodes are visited in no particular order.
+     *
+     * @param consumer Action to be performed for each query and set of records.
+     */
+    public void forEachNode(BiConsumer<DNSNode, Set<ResourceRecord>> consumer) {
+        tryMaintenance();
+        cachedResults.forEach(consumer);
+    }
+
+    /** Perform a specific action for each query and its set of cached records, visiting queries
+     * in order of host name and record type. This requires sorting a snapshot of the cache, so
+     * it should only be used when the order matters, e.g., when printing the cache content.
+     *
+     * @param consumer Action to be performed for each query and set of records.
+     */
+    public void forEachNodeSorted(BiConsumer<DNSNode, Set<ResourceRecord>> consumer) {
+        Map<DNSNode, Set<ResourceRecord>> sorted = new TreeMap<>();
+        forEachNode(sorted::put);
+        sorted.forEach(consumer);
+    }
+
+    /** Perform a specific action for each query and individual record. This action can be
+     * specified using a lambda expression or method name. Expired records are removed before
+     * the action is performed.
+     *
+     * @param consumer Action to be performed for each query and record.
+     */
+    public void forEachRecord(BiConsumer<DNSNode, ResourceRecord> consumer) {
+        forEachNode((node, results) -> results.forEach(record -> consumer.accept(node, record)));
+    }
+
+    /** Perform a specific action for each negative result still cached. Expired results are
+     * removed before the action is performed.
+     *
+     * @param consumer Action to be performed for each negative result.
+     */
+    public void forEachNegativeResult(Consumer<NegativeResult> consumer) {
+        tryMaintenance();
+        negativeResults.values().forEach(consumer);
+    }
+
+    /** Changes the maximum number of nodes kept in the cache. If the cache has more nodes than
+     * the new maximum, nodes are evicted immediately.
+     *
+     * @param maximumSize Maximum number of nodes (host name and type) kept in the cache.
+     */
+    public void setMaximumSize(int maximumSize) {
+        maintenanceLock.lock();
+        try {
+            for (DNSNode evicted : evictionPolicy.setMaximumSize(maximumSize))
+                evict(evicted);
+        } finally {
+            maintenanceLock.unlock();
+        }
+    }
+
+    /** Chooses where the records of the cache are kept. Off the heap, they are encoded in direct
+     * buffers, which keeps garbage collection short however many records are cached, but each
+     * read decodes the records it returns. Records already cached are moved to the new store.
+     *
+     * @param offHeap true to keep the records off the heap, false to keep them on the heap.
+     */
+    public void setOffHeap(boolean offHeap) {
+        maintenanceLock.lock();
+        try {
+            if (offHeap == isOffHeap())
+                return;
+            RecordStore store = offHeap ? new OffHeapRecordStore() : new HeapRecordStore();
+            cachedResults.forEach(store::put);
+            cachedResults = store;
+        } finally {
+            maintenanceLock.unlock();
+        }
+    }
+
+    /** Returns true if the records of the cache are kept off the heap.
+     */
+    public boolean isOffHeap() {
+        return cachedResults instanceof OffHeapRecordStore;
+    }
+
+    /** Changes how early popular nodes are refreshed, as a share of the TTL of their records.
+     * For instance, with 0.1, a node whose records have a TTL of 300 seconds is refreshed 30
+     * seconds before they expire. The new share applies to records added afterwards.
+     *
+     * @param refreshShare Share of the TTL, between 0 and 1, or 0 to stop refreshing nodes.
+     */
+    public void setRefreshShare(double refreshShare) {
+        this.refreshShare = refreshShare;
+    }
+
+    /** Sets the action performed when a popular node should be refreshed. The action is
+     * performed while holding the maintenance lock, so it must not use the cache itself; it
+     * should only schedule the resolution of the node, whose records are then given back to
+     * addResult().
+     *
+     * @param refreshListener Action performed for each node to be refreshed, or null for none.
+     */
+    public void setRefreshListener(Consumer<DNSNode> refreshListener) {
+        this.refreshListener = refreshListener;
+    }
+
+    /** Returns the current value of the cache counters.
+     *
+     * @return A snapshot of the cache statistics.
+     */
+    public CacheStatistics getStatistics() {
+        maintenanceLock.lock();
+        try {
+            return new CacheStatistics(hitCount.sum(), missCount.sum(), evictionCount.sum(),
+                    expirationCount.sum(), evictionPolicy.size(), evictionPolicy.getMaximumSize());
+        } finally {
+            maintenanceLock.unlock();
+        }
+    }
+
+    /** Performs pending maintenance if no other thread is doing it already.
+     */
+    private void tryMaintenance() {
+        if (!maintenanceLock.tryLock())
+            return;
+        try {
+            maintenance();
+        } finally {
+            maintenanceLock.unlock();
+        }
+    }
+
+    /** Gives recorded reads to the eviction policy, and removes records if the timing wheel has
+     * reached their expiration. The wheel is kept one tick ahead of the current time, so a record
+     * still in the cache remains valid for at least one tick. Must hold the maintenance lock.
+     */
+    private void maintenance() {
+        readBuffer.drainTo(this::onRead);
+
+        if (System.currentTimeMillis() >= nextExpiryCheck) {
+            long now = System.currentTimeMillis();
+            expiryWheel.advance(now + EXPIRY_TICK_MILLIS, this::expire);
+            negativeExpiryWheel.advance(now + EXPIRY_TICK_MILLIS, this::expireNegative);
+            refreshWheel.advance(now + EXPIRY_TICK_MILLIS, this::refresh);
+            nextExpiryCheck = expiryWheel.nextTickTime() - EXPIRY_TICK_MILLIS;
+        }
+    }
+
+    /** Records that a node was read, for the eviction policy and for refreshing the node. Must
+     * hold the maintenance lock.
+     */
+    private void onRead(DNSNode node) {
+        evictionPolicy.onAccess(node);
+        RefreshEntry entry = refreshEntries.get(node);
+        if (entry != null)
+            entry.hits++;
+    }
+
+    /** Schedules the refresh of a node for the time a newly added record reaches the last part
+     * of its TTL, unless the node is already scheduled to be refreshed earlier. Must hold the
+     * maintenance lock.
+     */
+    private void scheduleRefresh(DNSNode node, ResourceRecord record) {
+        double share = refreshShare;
+        if (share <= 0)
+            return;
+        long expiresAt = record.getExpirationTime();
+        long refreshAt = expiresAt - (long) (share * (expiresAt - System.currentTimeMillis()));
+
+        RefreshEntry entry = refreshEntries.get(node);
+        if (entry == null)
+            entry = new RefreshEntry(node);
+        else if (entry.refreshAt <= refreshAt)
+            return;
+        else
+            refreshWheel.cancel(entry.timer);
+
+        entry.refreshAt = refreshAt;
+        entry.timer = refreshWheel.schedule(entry, refreshAt);
+        if (entry.timer == null)
+            refreshEntries.remove(node);
+        else
+            refreshEntries.put(node, entry);
+    }
+
+    /** Reports a node to the refresh listener if it was read often enough since its records
+     * were added. Must hold the maintenance lock.
+     */
+    private void refresh(RefreshEntry entry) {
+        refreshEntries.remove(entry.node);
+        Consumer<DNSNode> listener = refreshListener;
+        if (listener != null && entry.hits >= REFRESH_MIN_HITS && cachedResults.containsKey(entry.node))
+            listener.accept(entry.node);
+    }
+
+    /** Stops tracking a node removed from the cache. Must hold the maintenance lock.
+     */
+    private void cancelRefresh(DNSNode node) {
+        RefreshEntry entry = refreshEntries.remove(node);
+        if (entry != null)
+            refreshWheel.cancel(entry.timer);
+    }
+
+    /** Schedules the expiration of a node for the time its earliest record expires, replacing
+     * its current schedule. Must hold the maintenance lock.
+     */
+    private void scheduleExpiry(DNSNode node, Set<ResourceRecord> records) {
+        long expiresAt = Long.MAX_VALUE;
+        for (ResourceRecord record : records)
+            expiresAt = Math.min(expiresAt, record.getExpirationTime());
+
+        TimerWheel.Timer<DNSNode> previous = expiryTimers.remove(node);
+        if (previous != null)
+            expiryWheel.cancel(previous);
+        TimerWheel.Timer<DNSNode> timer = expiryWheel.schedule(node, expiresAt);
+        if (timer != null)
+            expiryTimers.put(node, timer);
+        else
+            expire(node); // already reached by the wheel
+    }
+
+    /** Removes an expired negative result. Must hold the maintenance lock.
+     */
+    private void expireNegative(NegativeResult result) {
+        DNSNode node = result.getNode();
+        if (negativeResults.remove(node, result)) {
+            negativeExpiryTimers.remove(node);
+            expirationCount.increment();
+            evictionPolicy.onRemove(node);
+        }
+    }
+
+    /** Removes the negative result of a node, if any. Must hold the maintenance lock.
+     *
+     * @return true if the node had a negative result, false otherwise.
+     */
+    private boolean removeNegative(DNSNode node) {
+        if (negativeResults.remove(node) == null)
+            return false;
+        negativeExpiryWheel.cancel(negativeExpiryTimers.remove(node));
+        return true;
+    }
+
+    /** Removes the records of a node reached by the timing wheel, removing the node if no record
+     * is left, or scheduling it again for the expiration of its remaining records. Must hold the
+     * maintenance lock.
+     */
+    private void expire(DNSNode node) {
+        expiryTimers.remove(node);
+        Set<ResourceRecord> current = cachedResults.get(node);
+        if (current == null)
+            return;
+
+        long validUntil = expiryWheel.nextTickTime();
+        Set<ResourceRecord> remaining = new HashSet<>();
+        for (ResourceRecord record : current)
+            if (record.getExpirationTime() >= validUntil)
+                remaining.add(record);
+        expirationCount.add(current.size() - remaining.size());
+
+        if (remaining.isEmpty()) {
+            cachedResults.remove(node);
+            cancelRefresh(node);
+            evictionPolicy.onRemove(node);
+            return;
+        }
+        Set<ResourceRecord> updated = remaining.size() == 1 ? Collections.singleton(remaining.iterator().next())
+                : Collections.unmodifiableSet(remaining);
+        cachedResults.put(node, updated);
+        scheduleExpiry(node, updated);
+    }
+
+    /** Removes a node and all its records from the cache. Must hold the maintenance lock.
+     */
+    private void evict(DNSNode node) {
+        if (removeNegative(node)) {
+            evictionCount.increment();
+            return;
+        }
+        if (!cachedResults.remove(node))
+            return;
+        TimerWheel.Timer<DNSNode> timer = expiryTimers.remove(node);
+        if (timer != null)
+            expiryWheel.cancel(timer);
+        cancelRefresh(node);
+        evictionCount.increment();
+    }
+
+    private static ResourceRecord findEquivalent(Set<ResourceRecord> results, ResourceRecord record) {
+        for (ResourceRecord cached : results)
+            if (cached.equals(record))
+                return cached;
+        return null;
+    }
+
+    /** Returns a new immutable set based on an existing one, with a record added to it.
+     *
+     * @param results  Current set of records, or null if there is none.
+     * @param replaced Record of the current set equivalent to the new one, or null if none.
+     * @param record   Record to be added.
+     * @return The set that should replace the current one.
+     */
+    private static Set<ResourceRecord> withRecord(Set<ResourceRecord> results, ResourceRecord replaced,
+                                                  ResourceRecord record) {
+        if (results == null)
+            return Collections.singleton(record);
+
+        Set<ResourceRecord> updated = new HashSet<>(results);
+        if (replaced != null)
+            updated.remove(replaced);
+        updated.add(record);
+        return Collections.unmodifiableSet(updated);
+    }
+
+    /** Refresh of a node, along with the number of times the node was read since its records
+     * were added.
+     */
+    private static class RefreshEntry {
+        private final DNSNode node;
+        private long refreshAt;
+        private TimerWheel.Timer<RefreshEntry> timer;
+        private int hits;
+
+        private RefreshEntry(DNSNode node) {
+            this.node = node;
+        }
+    }
+}
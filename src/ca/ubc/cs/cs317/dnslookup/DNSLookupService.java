@@ -1,974 +1,1405 @@
-package ca.ubc.cs.cs317.dnslookup;
-
-import java.io.Console;
-import java.net.DatagramPacket;
-import java.io.*;
-import java.net.*;
-import java.nio.ByteBuffer;
-import java.util.*;
-
-public class DNSLookupService {
-
-    private static final int DEFAULT_DNS_PORT = 53;
-    private static final int MAX_INDIRECTION_LEVEL = 10;
-
-    private static InetAddress rootServer;
-    private static InetAddress currentServer;
-    private static InetAddress nextAddress; // next address to search if current search fails
-    private static String nextNSRecord;
-    private static boolean verboseTracing = false;
-    private static DatagramSocket socket;
-    private static String currentDomain;
-
-    private static DNSCache cache = DNSCache.getInstance();
-
-    private static Random random = new Random();
-    final static int MAX_QUERY_ID = 0xFFFF; // must be 16 bit -> 0x0 to 0xFFFF
-
-    private static int bytePosParse = 0; // keep track of position parsed so far
-
-    private static int[] generatedIDs = new int[65536]; // can have 65536 unique values
-    // if the ID was generated, generatedIDs[ID#] will be 1, otherwise 0
-
-    /**
-     * Main function, called when program is first invoked.
-     *
-     * @param args list of arguments specified in the command line.
-     */
-    public static void main(String[] args) {
-
-        if (args.length != 1) {
-            System.err.println("Invalid call. Usage:");
-            System.err.println("\tjava -jar DNSLookupService.jar rootServer");
-            System.err.println("where rootServer is the IP address (in dotted form) of the root DNS server to start the search at.");
-            System.exit(1);
-        }
-
-        try {
-            rootServer = InetAddress.getByName(args[0]);
-            currentServer = rootServer;
-            System.out.println("Root DNS server is: " + rootServer.getHostAddress());
-        } catch (UnknownHostException e) {
-            System.err.println("Invalid root server (" + e.getMessage() + ").");
-            System.exit(1);
-        }
-
-        try {
-            socket = new DatagramSocket();
-            socket.setSoTimeout(5000);
-        } catch (SocketException ex) {
-            ex.printStackTrace();
-            System.exit(1);
-        }
-
-        Scanner in = new Scanner(System.in);
-        Console console = System.console();
-        do {
-            // Use console if one is available, or standard input if not.
-            String commandLine;
-            if (console != null) {
-                System.out.print("DNSLOOKUP> ");
-                commandLine = console.readLine();
-            } else
-                try {
-                    commandLine = in.nextLine();
-                } catch (NoSuchElementException ex) {
-                    break;
-                }
-            // If reached end-of-file, leave
-            if (commandLine == null) break;
-
-            // Ignore leading/trailing spaces and anything beyond a comment character
-            commandLine = commandLine.trim().split("#", 2)[0];
-
-            // If no command shown, skip to next command
-            if (commandLine.trim().isEmpty()) continue;
-
-            String[] commandArgs = commandLine.split(" ");
-
-            if (commandArgs[0].equalsIgnoreCase("quit") ||
-                    commandArgs[0].equalsIgnoreCase("exit"))
-                break;
-            else if (commandArgs[0].equalsIgnoreCase("server")) {
-                // SERVER: Change root nameserver
-                if (commandArgs.length == 2) {
-                    try {
-                        rootServer = InetAddress.getByName(commandArgs[1]);
-                        currentServer = rootServer;
-                        System.out.println("Root DNS server is now: " + rootServer.getHostAddress());
-                    } catch (UnknownHostException e) {
-                        System.out.println("Invalid root server (" + e.getMessage() + ").");
-                        continue;
-                    }
-                } else {
-                    System.out.println("Invalid call. Format:\n\tserver IP");
-                    continue;
-                }
-            } else if (commandArgs[0].equalsIgnoreCase("trace")) {
-                // TRACE: Turn trace setting on or off
-                if (commandArgs.length == 2) {
-                    if (commandArgs[1].equalsIgnoreCase("on"))
-                        verboseTracing = true;
-                    else if (commandArgs[1].equalsIgnoreCase("off"))
-                        verboseTracing = false;
-                    else {
-                        System.err.println("Invalid call. Format:\n\ttrace on|off");
-                        continue;
-                    }
-                    System.out.println("Verbose tracing is now: " + (verboseTracing ? "ON" : "OFF"));
-                } else {
-                    System.err.println("Invalid call. Format:\n\ttrace on|off");
-                    continue;
-                }
-            } else if (commandArgs[0].equalsIgnoreCase("lookup") ||
-                    commandArgs[0].equalsIgnoreCase("l")) {
-                // LOOKUP: Find and print all results associated to a name.
-                RecordType type;
-                if (commandArgs.length == 2)
-                    type = RecordType.A;
-                else if (commandArgs.length == 3)
-                    try {
-                        type = RecordType.valueOf(commandArgs[2].toUpperCase());
-                    } catch (IllegalArgumentException ex) {
-                        System.err.println("Invalid query type. Must be one of:\n\tA, AAAA, NS, MX, CNAME");
-                        continue;
-                    }
-                else {
-                    System.err.println("Invalid call. Format:\n\tlookup hostName [type]");
-                    continue;
-                }
-                currentDomain = commandArgs[1];
-                findAndPrintResults(commandArgs[1], type);
-            } else if (commandArgs[0].equalsIgnoreCase("dump")) {
-                // DUMP: Print all results still cached
-                cache.forEachNode(DNSLookupService::printResults);
-            } else {
-                System.err.println("Invalid command. Valid commands are:");
-                System.err.println("\tlookup fqdn [type]");
-                System.err.println("\ttrace on|off");
-                System.err.println("\tserver IP");
-                System.err.println("\tdump");
-                System.err.println("\tquit");
-                continue;
-            }
-
-        } while (true);
-
-        socket.close();
-        System.out.println("Goodbye!");
-    }
-
-    /**
-     * Finds all results for a host name and type and prints them on the standard output.
-     *
-     * @param hostName Fully qualified domain name of the host being searched.
-     * @param type     Record type for search.
-     */
-    private static void findAndPrintResults(String hostName, RecordType type) {
-
-        DNSNode node = new DNSNode(hostName, type);
-        printResults(node, getResults(node, 0));
-        currentServer = rootServer;
-    }
-
-    /**
-     * Finds all the result for a specific node.
-     *
-     * @param node             Host and record type to be used for search.
-     * @param indirectionLevel Control to limit the number of recursive calls due to CNAME redirection.
-     *                         The initial call should be made with 0 (zero), while recursive calls for
-     *                         regarding CNAME results should increment this value by 1. Once this value
-     *                         reaches MAX_INDIRECTION_LEVEL, the function prints an error message and
-     *                         returns an empty set.
-     * @return A set of resource records corresponding to the specific query requested.
-     */
-    private static Set<ResourceRecord> getResults(DNSNode node, int indirectionLevel) {
-        // return empty set if max indirection level is reached
-        if (indirectionLevel > MAX_INDIRECTION_LEVEL) {
-            System.err.println("Maximum number of indirection levels reached.");
-            return Collections.emptySet();
-        }
-
-        DNSNode cnameNode = new DNSNode(node.getHostName(), RecordType.CNAME);
-        Set<ResourceRecord> cnameRecords = cache.getCachedResults(cnameNode);
-        if (!cnameRecords.isEmpty()) {
-            // if a CNAME record exists for the node
-            for (ResourceRecord cnameRecord : cnameRecords) {
-                String newCnameQuery = cnameRecord.getTextResult();
-                DNSNode newQuery = new DNSNode(newCnameQuery, node.getType());
-                while (true) {
-                    if (indirectionLevel > MAX_INDIRECTION_LEVEL) {
-                        System.err.println("Maximum number of indirection levels reached.");
-                        return Collections.emptySet();
-                    }
-                    // to check if there's CNAME RRs that are already in the cache
-                    Set<ResourceRecord> cachedCnameResults = cache.getCachedResults(new DNSNode(newCnameQuery, RecordType.CNAME));
-                    if (cachedCnameResults.isEmpty()) {
-                        cnameNode = new DNSNode(newQuery.getHostName(), node.getType());
-                        break;
-                    } else {
-                        for (ResourceRecord result : cachedCnameResults) {
-                            // follow the CNAME into the cache
-                            newCnameQuery = result.getTextResult();
-                            newQuery = new DNSNode(newCnameQuery, node.getType());
-                            indirectionLevel++;
-                        }
-                    }
-                }
-            }
-        }
-
-        node = new DNSNode(cnameNode.getHostName(), node.getType());
-
-        // look for record in cache; if found return
-        if (cache.getCachedResults(node).isEmpty()) {
-            retrieveResultsFromServer(node, currentServer);
-        }
-
-        // if it's looking for a CNAME
-        if (!cache.getCachedResults(node).isEmpty()) {
-            return cache.getCachedResults(node);
-        }
-
-        // if the DNSNode is a CNAME, have to do recursion to handle the root domain
-        cnameNode = new DNSNode(node.getHostName(), RecordType.CNAME);
-        cnameRecords = cache.getCachedResults(cnameNode);
-        if (node.getType() != RecordType.CNAME && !cnameRecords.isEmpty()) {
-            // if the node we're looking for is not in the cache and is not a CNAME, but a CNAME exists in the cache
-            // do a query again with the CNAME -> look for the IP address of the CNAME
-            for (ResourceRecord cnameRecord : cnameRecords) {
-                String newCnameQuery = cnameRecord.getTextResult();
-                DNSNode newQuery = new DNSNode(newCnameQuery, node.getType());
-
-                while (true) {
-                    if (indirectionLevel > MAX_INDIRECTION_LEVEL) {
-                        System.err.println("Maximum number of indirection levels reached.");
-                        return Collections.emptySet();
-                    }
-                    // to check if there's CNAME RRs that are already in the cache
-                    Set<ResourceRecord> cachedCnameResults = cache.getCachedResults(new DNSNode(newCnameQuery, RecordType.CNAME));
-                    if (cachedCnameResults.isEmpty()) {
-                        break;
-                    } else {
-                        for (ResourceRecord result : cachedCnameResults) {
-                            // follow the CNAME into the cache
-                            newCnameQuery = result.getTextResult();
-                            newQuery = new DNSNode(newCnameQuery, node.getType());
-                            indirectionLevel++;
-                        }
-                    }
-                }
-                return getResults(newQuery, indirectionLevel + 1);
-            }
-            // ----- end
-        }
-
-        // if there's a next address, query with new address
-        if (nextAddress != null) {
-            currentServer = nextAddress;
-            nextAddress = null;
-            return getResults(node, indirectionLevel); // redo search with a new address
-        } else if (nextNSRecord != null) {
-            DNSNode resolveNSNode = new DNSNode(nextNSRecord, RecordType.A);
-            nextNSRecord = null;
-            Set<ResourceRecord> nsRecords = getResults(resolveNSNode, 0);
-            for (ResourceRecord nsRecord : nsRecords) {
-                currentServer = nsRecord.getInetResult();
-                return getResults(node, 0);
-            }
-        }
-
-        // check in cache for the result and return (retrieveResultsFromServer doesn't return, only caches)
-        return cache.getCachedResults(node);
-    }
-
-    /**
-     * Retrieves DNS results from a specified DNS server. Queries are sent in iterative mode,
-     * and the query is repeated with a new server if the provided one is non-authoritative.
-     * Results are stored in the cache.
-     *
-     * @param node   Host name and record type to be used for the query.
-     * @param server Address of the server to be used for the query.
-     */
-    private static void retrieveResultsFromServer(DNSNode node, InetAddress server) {
-
-        String DNSServerAddress = server.getHostAddress();
-
-        // encode a query with a unique ID and host name & records
-        int queryID = generateQueryID();
-
-        // create new DNSMessage object and set fields appropriately
-        DNSMessage dnsMessage = new DNSMessage();
-        DNSQuestionEntry question = new DNSQuestionEntry(node.getHostName(), node.getType().getCode(), 1);
-        dnsMessage.addQuestion(question);
-        dnsMessage.setQueryId(queryID);
-
-        // encode query as a byte array to be sent through UDP socket
-        byte[] encodedBytes = encodeDNSQuery(dnsMessage);
-
-        // send as a query datagram through socket to the server
-        DatagramPacket packet = new DatagramPacket(encodedBytes, encodedBytes.length, server, DEFAULT_DNS_PORT);
-        String queryPrintString = String.format("Query ID     %d %s  %s --> %s\n", queryID, node.getHostName(), node.getType(), DNSServerAddress);
-
-        DatagramPacket received = sendPacket(packet, queryPrintString);
-
-        if (received == null) // no packet received, break and print -1
-            return;
-
-        // decode the received packet
-        DNSMessage response = decodeDNSQuery(received.getData());
-        if (response == null)
-            return;
-
-        // receive response datagram
-        boolean isAuthoritative = (response.getAA() == 1);
-
-        // decode response datagram
-        if (verboseTracing) {
-            System.out.printf("Response ID: %d Authoritative = %b\n", response.getQueryId(), isAuthoritative);
-
-            /* The next line consists of 2 spaces, the word Answers, followed by a space and the number 
-            of response records in the answer in parenthesis. */
-            System.out.printf("  Answers (%d)\n", response.getAnCount());
-            for (ResourceRecord record : response.getAnswerRRs()) {
-                verbosePrintResourceRecord(record, record.getType().getCode());
-            }
-            System.out.printf("  Nameservers (%d)\n", response.getNsCount());
-            for (ResourceRecord record : response.getAuthorityRRs()) {
-                verbosePrintResourceRecord(record, record.getType().getCode());
-            }
-            System.out.printf("  Additional Information (%d)\n", response.getArCount());
-            for (ResourceRecord record : response.getAdditionalRRs()) {
-                verbosePrintResourceRecord(record, record.getType().getCode());
-            }
-
-        }
-        // store response in the cache
-        bytePosParse = 0;
-
-        if (!isAuthoritative) {
-            // if the response isn't authoritative
-            List<ResourceRecord> additional = filterARecords(response.getAdditionalRRs());
-            if (additional.size() >= 1) {
-                for (ResourceRecord resourceRecord : additional) {
-                    if (resourceRecord.getHostName().equals(currentDomain)) {
-                        nextAddress = resourceRecord.getInetResult();
-                        return;
-                    }
-                }
-                // set next DNS server to query as the first additional record
-                nextAddress = additional.get(0).getInetResult();
-            } else {
-                // if the response is authoritative
-                List<ResourceRecord> authorities = filterNSRecords(response.getAuthorityRRs());
-                if (authorities.size() >= 1) {
-                    //if there's name sever records, reset the current server to query to original root server
-                    currentServer = rootServer;
-                    for (ResourceRecord authority : authorities) {
-                        if (authority.getHostName().equals(currentDomain)) {
-                            nextNSRecord = authority.getTextResult();
-                            return;
-                        }
-                    }
-                    nextNSRecord = authorities.get(0).getTextResult();
-                }
-            }
-        } else {
-            // if the server is authoritative, reset the current server to query to original root server
-            currentServer = rootServer;
-        }
-    }
-
-    /**
-     * Returns a list of only AR resource records from a list of RRs
-     *
-     * @param records list of records to filter
-     * @return a list of only name server records from the input list
-     */
-    private static List<ResourceRecord> filterARecords(List<ResourceRecord> records) {
-        List<ResourceRecord> aRecords = new ArrayList<>();
-        for (ResourceRecord record : records) {
-            if (record.getType() == RecordType.A) {
-                aRecords.add(record);
-            }
-        }
-        return aRecords;
-    }
-
-    /**
-     * Returns a list of only NS resource records from a list of RRs
-     *
-     * @param records list of records to filter
-     * @return a list of only name server records from the input list
-     */
-    private static List<ResourceRecord> filterNSRecords(List<ResourceRecord> records) {
-        List<ResourceRecord> nameServerRecords = new ArrayList<>();
-        for (ResourceRecord record : records) {
-            if (record.getType() == RecordType.NS) {
-                nameServerRecords.add(record);
-            }
-        }
-        return nameServerRecords;
-    }
-
-    /**
-     * Send DNS query.
-     */
-    private static DatagramPacket sendPacket(DatagramPacket packet, String queryPrintString) {
-        byte[] receiver = new byte[1024];
-        DatagramPacket received = new DatagramPacket(receiver, receiver.length);
-        try {
-            if (verboseTracing) {
-                System.out.print("\n\n");
-                System.out.printf(queryPrintString);
-            }
-            socket.send(packet);
-            try {
-                socket.receive(received);
-            } catch (SocketTimeoutException e) {
-                // resend the packet
-                if (verboseTracing) {
-                    System.out.print("\n\n");
-                    System.out.printf(queryPrintString);
-                }
-                // packet.setAddress(rootServer); // for testing timeout (2nd time work)
-                socket.send(packet);
-                try {
-                    socket.receive(received);
-                } catch (Exception ex) {
-                    // second attempt failed, just return -1
-                    return null;
-                }
-            }
-
-        } catch (IOException ex) {
-            return null;
-        }
-        return received;
-    }
-
-    /**
-     * Encodes a DNSMessage object into a byte array representing the data to be wrapped in a datagram packet.
-     *
-     * @param dnsMessage the DNSMessage object to translate
-     * @return byte array representing a dns query
-     */
-    private static byte[] encodeDNSQuery(DNSMessage dnsMessage) {
-        ByteArrayOutputStream bOutput = new ByteArrayOutputStream();
-        int queryId = dnsMessage.getQueryId();
-        try {
-            // header section
-            // convert query id from int to byte array
-            byte[] intArray = ByteBuffer.allocate(4).putInt(queryId).array();
-            byte[] queryIdArray = new byte[2];
-            queryIdArray[0] = intArray[2];
-            queryIdArray[1] = intArray[3];
-            bOutput.write(queryIdArray);
-            // qr, qpcode, aa, tc, rd, ra, z, rcode
-            bOutput.write(1);
-            bOutput.write(0);
-            // qd count
-            byte[] qdCount = new byte[2];
-            qdCount[1] = (byte) 1;
-            bOutput.write(qdCount);
-            // ancount, nscount, arcount
-            bOutput.write(0);
-            bOutput.write(0);
-
-            bOutput.write(0);
-            bOutput.write(0);
-
-            bOutput.write(0);
-            bOutput.write(0);
-            // question section
-            for (int i = 0; i < dnsMessage.getQuestions().size(); i++) {
-                // qname
-                bOutput.write(domainToQname(dnsMessage.getQuestions().get(i).getQname()));
-                // qtype
-                bOutput.write(0);
-                bOutput.write(dnsMessage.getQuestions().get(i).getQtype());
-                // qclass (set to 1 for IN)
-                bOutput.write(0);
-                bOutput.write(1);
-            }
-
-        } catch (IOException e) {
-            System.out.println(e.getMessage());
-        }
-        // THIS CODE BELOW IS JUST TO PRINT OUT THE ENCODED DNS QUERY - for testing only
-        // decodeDNSQuery(bOutput.toByteArray());
-        return bOutput.toByteArray();
-    }
-
-    /**
-     * Decodes a DNS response from a given byte array. Returns a query message.
-     */
-    private static DNSMessage decodeDNSQuery(byte[] response) {
-        // assume response is less than 1024 bytes
-        DNSMessage message = new DNSMessage();
-
-        // ------ HEADER ------
-
-        // ID (16 bits - 2 bytes)
-        byte[] parsedId = {response[0], response[1]};
-        int queryId = bytesToInt(parsedId);
-        message.setQueryId(queryId);
-
-        // QR (1 bit)
-        int QR = getBitAtPosition(response[2], 0);
-        message.setQr(QR);
-
-        // OPCODE (4 bits)
-        int[] parsedOpcode = new int[4];
-        for (int i = 1; i <= 4; i++) {
-            parsedOpcode[i - 1] = getBitAtPosition(response[2], i);
-        }
-        int OPCODE = bitsToInt(parsedOpcode);
-        message.setOpCode(OPCODE);
-
-        // AA (1 bit)
-        int AA = getBitAtPosition(response[2], 5);
-        message.setAA(AA);
-
-        // TC (1 bit)
-        int TC = getBitAtPosition(response[2], 6);
-        message.setTC(TC);
-
-        // RD (1 bit)
-        int RD = getBitAtPosition(response[2], 7);
-        message.setRD(RD);
-
-        // RA (1 bit)
-        int RA = getBitAtPosition(response[3], 0);
-        message.setRA(RA);
-
-        // Z (3 bits)
-        int[] parsedZ = new int[4];
-        for (int i = 1; i <= 3; i++) {
-            parsedZ[i - 1] = getBitAtPosition(response[3], i);
-        }
-        int Z = bitsToInt(parsedZ);
-        message.setZ(Z);
-
-        // RCODE (4 bits)
-        int[] parsedRcode = new int[4];
-        for (int i = 4; i <= 7; i++) {
-            parsedRcode[i - 4] = getBitAtPosition(response[3], i);
-        }
-        int RCODE = bitsToInt(parsedRcode);
-        if (RCODE == 3) {
-            return null;
-        }
-        message.setRCODE(RCODE);
-
-        // QDCOUNT (16 bits)
-        int[] parsedQDCount = new int[16];
-        for (int i = 0; i <= 7; i++) {
-            parsedQDCount[i] = getBitAtPosition(response[4], i);
-        }
-        for (int i = 0; i <= 7; i++) {
-            parsedQDCount[8 + i] = getBitAtPosition(response[5], i);
-        }
-        int QDCOUNT = bitsToInt(parsedQDCount);
-        message.setQdCount(QDCOUNT);
-
-        // ANCOUNT (16 bits)
-        int[] parsedAncount = new int[16];
-        for (int i = 0; i <= 7; i++) {
-            parsedAncount[i] = getBitAtPosition(response[6], i);
-        }
-        for (int i = 0; i <= 7; i++) {
-            parsedAncount[8 + i] = getBitAtPosition(response[7], i);
-        }
-        int ANCOUNT = bitsToInt(parsedAncount);
-        message.setAnCount(ANCOUNT);
-
-        // NSCOUNT (16 bits)
-        int[] parsedNscount = new int[16];
-        for (int i = 0; i <= 7; i++) {
-            parsedNscount[i] = getBitAtPosition(response[8], i);
-        }
-        for (int i = 0; i <= 7; i++) {
-            parsedNscount[8 + i] = getBitAtPosition(response[9], i);
-        }
-        int NSCOUNT = bitsToInt(parsedNscount);
-        message.setNsCount(NSCOUNT);
-
-        // ARCOUNT (16 bits)
-        int[] parsedArcount = new int[16];
-        for (int i = 0; i <= 7; i++) {
-            parsedArcount[i] = getBitAtPosition(response[10], i);
-        }
-        for (int i = 0; i <= 7; i++) {
-            parsedArcount[8 + i] = getBitAtPosition(response[11], i);
-        }
-        int ARCOUNT = bitsToInt(parsedArcount);
-        message.setArCount(ARCOUNT);
-
-        bytePosParse = 12; // byte to start parsing variable length entries
-
-        // ------ QUESTION ------
-        // variable length
-
-        for (int qNum = 0; qNum < QDCOUNT; qNum++) {
-
-            // QNAME - variable length
-            String QNAME = getDomainAt(response, bytePosParse, true);
-
-            // QTYPE (2 octets = 2 bytes = 16 bits)
-            byte[] parsedQtype = {response[bytePosParse], response[bytePosParse + 1]};
-            bytePosParse += 2;
-            int QTYPE = bytesToInt(parsedQtype);
-
-            // QCLASS (2 octets = 2 bytes = 16 bits)
-            byte[] parsedQclass = {response[bytePosParse], response[bytePosParse + 1]};
-            bytePosParse += 2;
-            int QCLASS = bytesToInt(parsedQclass);
-
-            DNSQuestionEntry question = new DNSQuestionEntry(QNAME, QTYPE, QCLASS);
-            message.addQuestion(question);
-        }
-
-        // ------ ANSWER ------
-
-        for (int ansNum = 0; ansNum < ANCOUNT; ansNum++) {
-            ResourceRecord record = parseResourceRecord(response);
-            message.addAnswerRR(record);
-            cache.addResult(record);
-        }
-
-        // ------ AUTHORITY ------
-
-        for (int ansNum = 0; ansNum < NSCOUNT; ansNum++) {
-            ResourceRecord record = parseResourceRecord(response);
-            message.addAuthorityRR(record);
-            cache.addResult(record);
-        }
-
-        // ------ ADDITIONAL ------
-
-        for (int ansNum = 0; ansNum < ARCOUNT; ansNum++) {
-            ResourceRecord record = parseResourceRecord(response);
-            message.addAdditionalRR(record);
-            cache.addResult(record);
-        }
-
-        return message;
-    }
-
-    private static ResourceRecord parseResourceRecord(byte[] response) {
-
-        // NAME - variable length
-        String NAME = getDomainAt(response, bytePosParse, true);
-
-        // TYPE
-        byte[] typeBytes = {response[bytePosParse], response[bytePosParse + 1]};
-        bytePosParse += 2;
-        RecordType TYPE;
-        TYPE = RecordType.getByCode(bytesToInt(typeBytes));
-
-        // CLASS
-        byte[] classBytes = {response[bytePosParse], response[bytePosParse + 1]};
-        bytePosParse += 2;
-        int CLASS = bytesToInt(classBytes);
-
-        // TTL (32-bit; 4 bytes)
-        byte[] ttlBytes = new byte[4];
-        for (int i = 0; i < 4; i++) {
-            ttlBytes[i] = response[bytePosParse];
-            bytePosParse++;
-        }
-        int TTL = bytesToInt(ttlBytes);
-
-        // RDLENGTH (16-bit, 2 bytes)
-        byte[] rdlengthBytes = {response[bytePosParse], response[bytePosParse + 1]};
-        bytePosParse += 2;
-        int RDLENGTH = bytesToInt(rdlengthBytes);
-
-        // RDATA
-        byte[] rdataBytes = new byte[RDLENGTH];
-        for (int i = 0; i < RDLENGTH; i++) {
-            rdataBytes[i] = response[bytePosParse];
-            bytePosParse++;
-        }
-        String RDATA = "";
-        try {
-            if (TYPE == RecordType.A || TYPE == RecordType.AAAA) {
-                RDATA = convertAddressRecordData(rdataBytes, TYPE);
-                return new ResourceRecord(NAME, TYPE, (long) TTL, InetAddress.getByName(RDATA));
-            } else if (TYPE == RecordType.CNAME || TYPE == RecordType.NS) {
-                RDATA = getDomainAt(response, bytePosParse - RDLENGTH, false);
-            } else {
-                RDATA = "----";
-            }
-        } catch (UnknownHostException ex) {
-            System.out.println(ex);
-        }
-
-        return new ResourceRecord(NAME, TYPE, (long) TTL, RDATA);
-    }
-
-
-    /**
-     * Return an IP Address as a string depending on the RR type
-     *
-     * @param data array of bytes to convert
-     * @param type resource record type
-     * @return correct string representation (i.e. IPv4 Address for type A in dotted decimal notation)
-     */
-    private static String convertAddressRecordData(byte[] data, RecordType type) {
-        if (type == RecordType.A) {
-            // record type is A
-            return getIpv4Address(data);
-        } else {
-            // record type is AAAA
-            return getIpv6Address(data);
-        }
-    }
-
-    /**
-     * Converts an array of bytes into an IPv4 address
-     *
-     * @param data array of bytes to convert
-     * @return IPv4 address as a String
-     */
-    private static String getIpv4Address(byte[] data) {
-        StringBuilder ipAddress = new StringBuilder();
-        for (byte b : data) {
-            // convert each byte to an unsigned int
-            ipAddress.append((int) b & 0xFF).append(".");
-        }
-        int addressLength = ipAddress.toString().length();
-        // remove the last extra period
-        return ipAddress.toString().substring(0, addressLength - 1);
-    }
-
-    /**
-     * Converts an array of bytes into an IPv6 address
-     *
-     * @param data array of bytes to convert
-     * @return IPv6 address as a String
-     */
-    private static String getIpv6Address(byte[] data) {
-        StringBuilder ipAddress = new StringBuilder();
-        boolean colonFlag = false;
-        for (byte datum : data) {
-            ipAddress.append(String.format("%02x", datum));
-            if (colonFlag) {
-                // append a colon for every second byte
-                ipAddress.append(":");
-                colonFlag = false;
-            } else {
-                colonFlag = true;
-            }
-        }
-        // split the address by colons
-        String[] splitAddress = ipAddress.toString().split(":");
-        StringBuilder ipAddressBuilder = new StringBuilder();
-        for (String s : splitAddress) {
-            // convert to int to remove trailing and leading zeroes
-            ipAddressBuilder.append(String.format("%x", Integer.parseInt(s, 16))).append(":");
-        }
-        // removes the last extra colon from the address
-        return ipAddressBuilder.toString().substring(0, ipAddressBuilder.toString().length() - 1);
-    }
-
-    private static String getDomainAt(byte[] response, int position, boolean incPos) {
-        // for resolving message compression pointers
-
-        // NAME length (8 bits - 1 byte)
-        String NAME = "";
-
-        while (true) {
-
-            int currNameLength = response[position] & 0xFF;
-            if (currNameLength == 0) {
-                if (incPos)
-                    bytePosParse++;
-                break;
-            }
-
-            if (getBitAtPosition(response[position], 0) == 1 && getBitAtPosition(response[position], 1) == 1) {
-                // domain name is a pointer
-                int[] tempOffset = new int[14]; // bits to convert to offset
-                for (int i = 2; i <= 7; i++) {
-                    tempOffset[i - 2] = getBitAtPosition(response[position], i);
-                }
-                position++;
-                for (int i = 0; i <= 7; i++) {
-                    tempOffset[i + 6] = getBitAtPosition(response[position], i);
-                }
-                position++;
-                int offset = bitsToInt(tempOffset);
-
-                if (incPos)
-                    bytePosParse += 2;
-
-                NAME += getDomainAt(response, offset, false);
-                break;
-
-            } else {
-                position++;
-                if (incPos)
-                    bytePosParse++;
-
-                byte[] qNameDomainBytes = new byte[currNameLength];
-                // QNAME domains
-                for (int currQnameOctet = 0; currQnameOctet < currNameLength; currQnameOctet++) {
-                    qNameDomainBytes[currQnameOctet] += response[position];
-                    position++;
-                    if (incPos)
-                        bytePosParse++;
-                }
-                try {
-                    String asciiDomain = new String(qNameDomainBytes, "UTF-8");
-                    NAME += asciiDomain + ".";
-                } catch (Exception e) {
-                    continue;
-                }
-            }
-
-        }
-
-        try {
-            if (NAME.substring(NAME.length() - 1).equals(".")) {
-                NAME = NAME.substring(0, NAME.length() - 1);
-            }
-        } catch (Exception e) {
-
-        }
-        return NAME; // end QNAME if null byte (00)
-    }
-
-    /**
-     * Utility function to print a datagram packet in bits, as formatted in RFCs. For debugging purposes.
-     */
-    private static void printDatagramPacketInBits(byte[] response) {
-        int linecount = 1; // num bytes printed, should be 2
-        for (int i = 0; i < response.length; i++) {
-            for (int j = 0; j < 8; j++) {
-                System.out.print(getBitAtPosition(response[i], j));
-            }
-            linecount++;
-            if (linecount > 2) {
-                System.out.print("\n");
-                linecount = 1;
-            }
-        }
-
-    }
-
-    /**
-     * Utiity function to convert bits to an integer.
-     */
-    private static int bitsToInt(int[] bits) {
-        int value = 0;
-        for (int i = 0; i < bits.length; i++) {
-            value += bits[i] * (int) Math.pow(2, bits.length - 1 - i);
-        }
-        return value;
-    }
-
-    /**
-     * Utility function to get a bit at a given position in a byte.
-     *
-     * @param inputByte
-     * @param position  Position from the left (as if the bits are an array)
-     * @return int (either 1 or 0) which is the bit at the given position
-     */
-    private static int getBitAtPosition(byte inputByte, int position) {
-        //System.out.print(inputByte);
-        int pos = 7 - position; // this is because a bitwise shift
-        // starts from the right side
-        // System.out.print((inputByte >> pos) & 1);
-        return ((inputByte >> pos) & 1);
-    }
-
-    /**
-     * Utility function to convert number of bytes to an int. Only supports 2 or 4 bytes.
-     *
-     * @param bytes byte array to convert
-     * @return int conversion of the byte array
-     */
-    private static int bytesToInt(byte[] bytes) {
-        if (bytes.length == 2) {
-            return (bytes[0] & 0xff) << 8 | (bytes[1] & 0xff);
-        } else if (bytes.length == 4) {
-            return bytes[0] << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8
-                    | (bytes[3] & 0xff);
-        } else {
-            System.out.print("conversion of bytes to int not supported");
-            return 0;
-        }
-    }
-
-    /**
-     * Utility function for printing a byte array. For debugging purposes.
-     */
-    private static void printByteArray(byte[] byteArray) {
-        for (byte b : byteArray) {
-            System.out.print(String.format("%02X", b) + " ");
-        }
-        System.out.println();
-    }
-
-    /**
-     * Converts the domain name to a suitable format for Qname
-     *
-     * @param hostName host name to translate
-     * @return host name in the format of a QNAME (byte array)
-     */
-    private static byte[] domainToQname(String hostName) {
-        String[] splitDomain = hostName.split("\\.");
-        ByteArrayOutputStream dnameOutput = new ByteArrayOutputStream(splitDomain.length);
-        for (String part : splitDomain) {
-            // write the length of the label first
-            dnameOutput.write(part.length());
-            for (int index = 0; index < part.length(); index++) {
-                // convert string to hex
-                int ascii = (int) part.charAt(index);
-                dnameOutput.write(ascii);
-            }
-        }
-        dnameOutput.write(0);
-        return dnameOutput.toByteArray();
-    }
-
-    /**
-     * Generates a unique query ID between 0 and 65535.
-     */
-    private static int generateQueryID() {
-        int n = random.nextInt(MAX_QUERY_ID + 1);
-
-        if (generatedIDs[n] == 1) { // if the ID has already been generated, try again
-            return generateQueryID();
-        } else {
-            generatedIDs[n] = 1; // set to used ID
-            return n;
-        }
-    }
-
-    private static void verbosePrintResourceRecord(ResourceRecord record, int rtype) {
-        if (verboseTracing)
-            System.out.format("       %-30s %-10d %-4s %s\n", record.getHostName(),
-                    record.getTTL(),
-                    record.getType() == RecordType.OTHER ? rtype : record.getType(),
-                    record.getTextResult());
-    }
-
-    /**
-     * Prints the result of a DNS query.
-     *
-     * @param node    Host name and record type used for the query.
-     * @param results Set of results to be printed for the node.
-     */
-    private static void printResults(DNSNode node, Set<ResourceRecord> results) {
-        if (results.isEmpty())
-            System.out.printf("%-30s %-5s %-8d %s\n", node.getHostName(),
-                    node.getType(), -1, "0.0.0.0");
-        for (ResourceRecord record : results) {
-            System.out.printf("%-30s %-5s %-8d %s\n", node.getHostName(),
-                    node.getType(), record.getTTL(), record.getTextResult());
-        }
-    }
-}
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.Console;
+import java.net.DatagramPacket;
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+public class DNSLookupService {
+
+    private static final int DEFAULT_DNS_PORT = 53;
+    private static final int MAX_INDIRECTION_LEVEL = 10;
+    private static final int MAX_REFERRALS = 16; // referrals followed by a refresh before giving up
+    private static final int QUERY_TIMEOUT = 5000; // total time waited for a response to a question
+    private static final int RCODE_FORMAT_ERROR = 1;
+    private static final int RCODE_SERVER_FAILURE = 2;
+    private static final int RCODE_NAME_ERROR = 3;
+    private static final int RCODE_NOT_IMPLEMENTED = 4;
+    private static final int RCODE_REFUSED = 5;
+    private static final long MAX_NEGATIVE_TTL = 3 * 60 * 60; // RFC 2308 suggests at most 3 hours
+    private static final double HEDGE_PERCENTILE = 95;
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    private static final long DEFAULT_HEDGE_DELAY = 500; // until enough round trips are measured
+    private static final long MIN_HEDGE_DELAY = 10;
+    // resolutions spend most of their time waiting on the network, so use more threads than cores
+    private static final int WORKER_THREADS = 4 * Runtime.getRuntime().availableProcessors();
+
+    private static volatile InetAddress rootServer;
+    private static volatile int serverPort = DEFAULT_DNS_PORT; // port every server is queried on
+    private static SimulatedHierarchy simulation; // started by the simulate command, if any
+    private static InetAddress rootBeforeSimulation;
+    private static int portBeforeSimulation;
+    private static volatile boolean verboseTracing = false;
+    private static volatile boolean useTcp = false; // send every query over TCP instead of UDP
+
+    private static DNSCache cache = DNSCache.getInstance();
+    private static DNSMessageEncoder encoder = new DNSMessageEncoder();
+    private static ExecutorService workers;
+    private static DNSTransport transport;
+    private static DNSTcpTransport tcpTransport;
+    private static LatencyHistogram upstreamLatency = new LatencyHistogram(); // in microseconds
+    private static InfrastructureCache infrastructure = new InfrastructureCache();
+
+    private static QueryIdAllocator queryIds = new QueryIdAllocator();
+    // resolutions currently querying servers for a node, completed once their results are cached
+    private static ConcurrentMap<DNSNode, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Main function, called when program is first invoked.
+     *
+     * @param args list of arguments specified in the command line.
+     */
+    public static void main(String[] args) {
+
+        if (args.length != 1 && args.length != 2) {
+            System.err.println("Invalid call. Usage:");
+            System.err.println("\tjava -jar DNSLookupService.jar rootServer [snapshotFile]");
+            System.err.println("where rootServer is the IP address (in dotted form) of the root DNS server to start the search at,");
+            System.err.println("and snapshotFile is a file the cache is loaded from at startup and saved to on exit.");
+            System.exit(1);
+        }
+
+        InetAddress root = null;
+        try {
+            root = InetAddress.getByName(args[0]);
+            System.out.println("Root DNS server is: " + root.getHostAddress());
+        } catch (UnknownHostException e) {
+            System.err.println("Invalid root server (" + e.getMessage() + ").");
+            System.exit(1);
+        }
+
+        try {
+            start(root, DEFAULT_DNS_PORT);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            System.exit(1);
+        }
+
+        Path snapshotFile = args.length == 2 ? Paths.get(args[1]) : null;
+        if (snapshotFile != null && Files.exists(snapshotFile))
+            loadSnapshot(snapshotFile);
+
+        Scanner in = new Scanner(System.in);
+        Console console = System.console();
+        do {
+            // Use console if one is available, or standard input if not.
+            String commandLine;
+            if (console != null) {
+                System.out.print("DNSLOOKUP> ");
+                commandLine = console.readLine();
+            } else
+                try {
+                    commandLine = in.nextLine();
+                } catch (NoSuchElementException ex) {
+                    break;
+                }
+            // If reached end-of-file, leave
+            if (commandLine == null) break;
+
+            // Ignore leading/trailing spaces and anything beyond a comment character
+            commandLine = commandLine.trim().split("#", 2)[0];
+
+            // If no command shown, skip to next command
+            if (commandLine.trim().isEmpty()) continue;
+
+            String[] commandArgs = commandLine.split(" ");
+
+            if (commandArgs[0].equalsIgnoreCase("quit") ||
+                    commandArgs[0].equalsIgnoreCase("exit"))
+                break;
+            else if (commandArgs[0].equalsIgnoreCase("server")) {
+                // SERVER: Change root nameserver, and the port every server is queried on
+                if (commandArgs.length == 2 || commandArgs.length == 3) {
+                    try {
+                        int port = commandArgs.length == 3 ? Integer.parseInt(commandArgs[2]) : DEFAULT_DNS_PORT;
+                        if (port < 1 || port > 65535)
+                            throw new NumberFormatException();
+                        rootServer = InetAddress.getByName(commandArgs[1]);
+                        serverPort = port;
+                        System.out.println("Root DNS server is now: " + rootServer.getHostAddress()
+                                + (port != DEFAULT_DNS_PORT ? " (port " + port + ")" : ""));
+                    } catch (UnknownHostException e) {
+                        System.out.println("Invalid root server (" + e.getMessage() + ").");
+                        continue;
+                    } catch (NumberFormatException e) {
+                        System.out.println("Invalid port: " + commandArgs[2]);
+                        continue;
+                    }
+                } else {
+                    System.out.println("Invalid call. Format:\n\tserver IP [port]");
+                    continue;
+                }
+            } else if (commandArgs[0].equalsIgnoreCase("simulate")) {
+                // SIMULATE: Serve a simulated DNS hierarchy on loopback addresses, and start resolutions at its root
+                if (commandArgs.length == 2 && commandArgs[1].equalsIgnoreCase("off")) {
+                    stopSimulation();
+                } else if (commandArgs.length == 2 || commandArgs.length == 3) {
+                    int port;
+                    try {
+                        port = commandArgs.length == 3 ? Integer.parseInt(commandArgs[2]) : SimulatedHierarchy.DEFAULT_PORT;
+                        if (port < 1 || port > 65535)
+                            throw new NumberFormatException();
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid port: " + commandArgs[2]);
+                        continue;
+                    }
+                    startSimulation(Paths.get(commandArgs[1]), port);
+                } else {
+                    System.err.println("Invalid call. Format:\n\tsimulate file [port]|off");
+                    continue;
+                }
+            } else if (commandArgs[0].equalsIgnoreCase("trace")) {
+                // TRACE: Turn trace setting on or off
+                if (commandArgs.length == 2) {
+                    if (commandArgs[1].equalsIgnoreCase("on"))
+                        verboseTracing = true;
+                    else if (commandArgs[1].equalsIgnoreCase("off"))
+                        verboseTracing = false;
+                    else {
+                        System.err.println("Invalid call. Format:\n\ttrace on|off");
+                        continue;
+                    }
+                    System.out.println("Verbose tracing is now: " + (verboseTracing ? "ON" : "OFF"));
+                } else {
+                    System.err.println("Invalid call. Format:\n\ttrace on|off");
+                    continue;
+                }
+            } else if (commandArgs[0].equalsIgnoreCase("tcp")) {
+                // TCP: Send every query over TCP, or only retry truncated responses over TCP
+                if (commandArgs.length == 2 && (commandArgs[1].equalsIgnoreCase("on") || commandArgs[1].equalsIgnoreCase("off"))) {
+                    useTcp = commandArgs[1].equalsIgnoreCase("on");
+                    System.out.println("TCP for all queries is now: " + (useTcp ? "ON" : "OFF"));
+                } else {
+                    System.err.println("Invalid call. Format:\n\ttcp on|off");
+                    continue;
+                }
+            } else if (commandArgs[0].equalsIgnoreCase("lookup") ||
+                    commandArgs[0].equalsIgnoreCase("l")) {
+                // LOOKUP: Find and print all results associated to a name.
+                RecordType type;
+                if (commandArgs.length == 2)
+                    type = RecordType.A;
+                else if (commandArgs.length == 3)
+                    try {
+                        type = RecordType.valueOf(commandArgs[2].toUpperCase());
+                    } catch (IllegalArgumentException ex) {
+                        System.err.println("Invalid query type. Must be one of:\n\tA, AAAA, NS, MX, CNAME");
+                        continue;
+                    }
+                else {
+                    System.err.println("Invalid call. Format:\n\tlookup hostName [type]");
+                    continue;
+                }
+                findAndPrintResults(commandArgs[1], type);
+            } else if (commandArgs[0].equalsIgnoreCase("dump")) {
+                // DUMP: Print all results still cached
+                cache.forEachNodeSorted(DNSLookupService::printResults);
+            } else if (commandArgs[0].equalsIgnoreCase("save")) {
+                // SAVE: Write the content of the cache to a snapshot file
+                if (commandArgs.length == 2)
+                    saveSnapshot(Paths.get(commandArgs[1]));
+                else if (commandArgs.length == 1 && snapshotFile != null)
+                    saveSnapshot(snapshotFile);
+                else {
+                    System.err.println("Invalid call. Format:\n\tsave [file]");
+                    continue;
+                }
+            } else if (commandArgs[0].equalsIgnoreCase("stats")) {
+                // STATS: Print cache counters
+                printCacheStatistics(cache.getStatistics());
+            } else if (commandArgs[0].equalsIgnoreCase("cachesize")) {
+                // CACHESIZE: Change the maximum number of cached nodes
+                try {
+                    if (commandArgs.length != 2 || Integer.parseInt(commandArgs[1]) < 1)
+                        throw new NumberFormatException();
+                    cache.setMaximumSize(Integer.parseInt(commandArgs[1]));
+                    System.out.println("Cache size is now: " + commandArgs[1]);
+                } catch (NumberFormatException ex) {
+                    System.err.println("Invalid call. Format:\n\tcachesize N");
+                    continue;
+                }
+            } else if (commandArgs[0].equalsIgnoreCase("offheap")) {
+                // OFFHEAP: Keep cached records off the Java heap, or back on the heap
+                if (commandArgs.length == 2 && (commandArgs[1].equalsIgnoreCase("on") || commandArgs[1].equalsIgnoreCase("off"))) {
+                    cache.setOffHeap(commandArgs[1].equalsIgnoreCase("on"));
+                    System.out.println("Off-heap record store is now: " + (cache.isOffHeap() ? "ON" : "OFF"));
+                } else {
+                    System.err.println("Invalid call. Format:\n\toffheap on|off");
+                    continue;
+                }
+            } else if (commandArgs[0].equalsIgnoreCase("batch")) {
+                // BATCH: Resolve every name listed in a file, or in standard input up to an empty line
+                if (commandArgs.length < 2 || commandArgs.length > 5) {
+                    System.err.println("Invalid call. Format:\n\tbatch file|- [concurrency] [text|json] [tcp]");
+                    continue;
+                }
+                runBatch(commandArgs, in, console);
+            } else if (commandArgs[0].equalsIgnoreCase("replay")) {
+                // REPLAY: Send the queries of a log, and report throughput, hit rate and latency
+                if (commandArgs.length != 2 && commandArgs.length != 3) {
+                    System.err.println("Invalid call. Format:\n\treplay file [speed=X|qps=N|workers=N]");
+                    continue;
+                }
+                runReplay(commandArgs);
+            } else if (commandArgs[0].equalsIgnoreCase("edns")) {
+                // EDNS: Change the UDP payload size advertised in queries, or stop using EDNS
+                try {
+                    if (commandArgs.length != 2)
+                        throw new IllegalArgumentException();
+                    encoder.setEdnsBufferSize(commandArgs[1].equalsIgnoreCase("off") ? 0 : Integer.parseInt(commandArgs[1]));
+                    transport.setReceiveBufferSize(encoder.getMaxResponseSize());
+                    System.out.println("EDNS is now: " + (encoder.getEdnsBufferSize() == 0 ? "OFF"
+                            : encoder.getEdnsBufferSize() + " bytes"));
+                } catch (IllegalArgumentException ex) {
+                    System.err.println("Invalid call. Format:\n\tedns SIZE|off (SIZE between 512 and 65535)");
+                    continue;
+                }
+            } else if (commandArgs[0].equalsIgnoreCase("refresh")) {
+                // REFRESH: Change how early popular records are refreshed, in percent of their TTL
+                try {
+                    int percent = commandArgs.length == 2 ? Integer.parseInt(commandArgs[1]) : -1;
+                    if (percent < 0 || percent >= 100)
+                        throw new NumberFormatException();
+                    cache.setRefreshShare(percent / 100.0);
+                    System.out.println("Refresh ahead is now: " + (percent == 0 ? "OFF" : percent + "% of TTL"));
+                } catch (NumberFormatException ex) {
+                    System.err.println("Invalid call. Format:\n\trefresh PERCENT");
+                    continue;
+                }
+            } else {
+                System.err.println("Invalid command. Valid commands are:");
+                System.err.println("\tlookup fqdn [type]");
+                System.err.println("\ttrace on|off");
+                System.err.println("\tserver IP [port]");
+                System.err.println("\tsimulate file [port]|off");
+                System.err.println("\ttcp on|off");
+                System.err.println("\tbatch file|- [concurrency] [text|json] [tcp]");
+                System.err.println("\treplay file [speed=X|qps=N|workers=N]");
+                System.err.println("\tdump");
+                System.err.println("\tsave [file]");
+                System.err.println("\tstats");
+                System.err.println("\tcachesize N");
+                System.err.println("\toffheap on|off");
+                System.err.println("\tedns SIZE|off");
+                System.err.println("\trefresh PERCENT");
+                System.err.println("\tquit");
+                continue;
+            }
+
+        } while (true);
+
+        if (snapshotFile != null)
+            saveSnapshot(snapshotFile);
+        if (simulation != null)
+            stopSimulation();
+        stop();
+        System.out.println("Goodbye!");
+    }
+
+    /**
+     * Sets up the resolver: opens the transports, starts the worker pool and the refresh of
+     * popular nodes. Called by main(), and by tools that call resolve() without the command line
+     * interface, such as benchmarks.
+     *
+     * @param root Address of the root server resolutions start at.
+     * @param port Port every server is queried on, normally DEFAULT_DNS_PORT.
+     * @throws IOException if a transport could not be opened.
+     */
+    static void start(InetAddress root, int port) throws IOException {
+        rootServer = root;
+        serverPort = port;
+        transport = new DNSTransport(encoder.getMaxResponseSize());
+        tcpTransport = new DNSTcpTransport();
+        workers = Executors.newFixedThreadPool(WORKER_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "dns-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        cache.setRefreshListener(DNSLookupService::scheduleRefresh);
+    }
+
+    /**
+     * Stops the worker pool and closes the transports opened by start().
+     */
+    static void stop() {
+        cache.setRefreshListener(null);
+        workers.shutdownNow();
+        try {
+            transport.close();
+            tcpTransport.close();
+        } catch (IOException ex) {
+            // stopping anyway
+        }
+    }
+
+    /**
+     * Starts the servers of a simulated hierarchy, replacing any simulation already running, and
+     * makes resolutions start at its root server. Records cached from other servers are kept.
+     *
+     * @param description Path of the description of the simulated servers and zones.
+     * @param port        Port the simulated servers listen on.
+     */
+    private static void startSimulation(Path description, int port) {
+        if (simulation != null)
+            stopSimulation();
+        try {
+            simulation = SimulatedHierarchy.start(description, port);
+        } catch (IOException ex) {
+            System.err.println("Could not start the simulation: " + ex.getMessage());
+            return;
+        }
+        rootBeforeSimulation = rootServer;
+        portBeforeSimulation = serverPort;
+        rootServer = simulation.getRootServer();
+        serverPort = port;
+        System.out.println("Simulating " + simulation.getServerCount() + " servers on port " + port
+                + ". Root DNS server is now: " + rootServer.getHostAddress());
+    }
+
+    /**
+     * Stops the simulated hierarchy, and goes back to the root server used before it started.
+     */
+    private static void stopSimulation() {
+        if (simulation == null) {
+            System.out.println("No simulation is running.");
+            return;
+        }
+        try {
+            simulation.close();
+        } catch (IOException ex) {
+            // stopping anyway
+        }
+        simulation = null;
+        rootServer = rootBeforeSimulation;
+        serverPort = portBeforeSimulation;
+        System.out.println("Simulation stopped. Root DNS server is now: " + rootServer.getHostAddress());
+    }
+
+    /**
+     * Loads a snapshot of the cache saved by a previous run, skipping expired records.
+     *
+     * @param file Path of the snapshot.
+     */
+    private static void loadSnapshot(Path file) {
+        long start = System.nanoTime();
+        try {
+            int loaded = CacheSnapshot.load(cache, file);
+            System.out.printf("Loaded %d cached results from %s in %d ms\n", loaded, file,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException ex) {
+            System.err.println("Could not load cache snapshot (" + ex.getMessage() + ").");
+        }
+    }
+
+    /**
+     * Saves a snapshot of the cache, so a later run can start with its content.
+     *
+     * @param file Path of the snapshot.
+     */
+    private static void saveSnapshot(Path file) {
+        try {
+            int saved = CacheSnapshot.save(cache, file);
+            System.out.printf("Saved %d cached results to %s\n", saved, file);
+        } catch (IOException ex) {
+            System.err.println("Could not save cache snapshot (" + ex.getMessage() + ").");
+        }
+    }
+
+    /**
+     * Runs the batch command: resolves the names listed in a file, or in standard input up to an
+     * empty line if the file is "-", writes their results to standard output, and prints a
+     * summary to standard error.
+     *
+     * @param commandArgs Arguments of the command: file, concurrency (optional), output format
+     *                    (optional, text or json) and tcp (optional) to send every query of the
+     *                    batch over TCP.
+     * @param in          Scanner reading standard input, if there is no console.
+     * @param console     Console, or null if there is none.
+     */
+    private static void runBatch(String[] commandArgs, Scanner in, Console console) {
+        int concurrency = BatchLookup.DEFAULT_CONCURRENCY;
+        boolean json = false;
+        boolean tcp = false;
+        for (int i = 2; i < commandArgs.length; i++) {
+            if (commandArgs[i].equalsIgnoreCase("tcp")) {
+                tcp = true;
+                continue;
+            }
+            if (commandArgs[i].equalsIgnoreCase("json") || commandArgs[i].equalsIgnoreCase("text")) {
+                json = commandArgs[i].equalsIgnoreCase("json");
+                continue;
+            }
+            try {
+                concurrency = Integer.parseInt(commandArgs[i]);
+                if (concurrency < 1)
+                    throw new NumberFormatException();
+            } catch (NumberFormatException ex) {
+                System.err.println("Invalid call. Format:\n\tbatch file|- [concurrency] [text|json] [tcp]");
+                return;
+            }
+        }
+
+        BufferedReader reader = null;
+        Supplier<String> lines;
+        if (commandArgs[1].equals("-")) {
+            lines = () -> {
+                String line = console != null ? console.readLine() : in.hasNextLine() ? in.nextLine() : null;
+                return line == null || line.trim().isEmpty() ? null : line;
+            };
+        } else {
+            try {
+                reader = new BufferedReader(new FileReader(commandArgs[1]));
+            } catch (FileNotFoundException ex) {
+                System.err.println("Cannot read " + commandArgs[1] + " (" + ex.getMessage() + ").");
+                return;
+            }
+            BufferedReader fileReader = reader;
+            lines = () -> {
+                try {
+                    return fileReader.readLine();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            };
+        }
+
+        BatchLookup batch = new BatchLookup(concurrency, json,
+                new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        boolean wasTcp = useTcp;
+        useTcp |= tcp;
+        try {
+            long elapsed = batch.run(lines);
+            batch.printSummary(elapsed, System.err);
+        } catch (IOException | UncheckedIOException ex) {
+            System.err.println("Batch failed (" + ex.getMessage() + ").");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            useTcp = wasTcp;
+            if (reader != null)
+                try {
+                    reader.close();
+                } catch (IOException ex) {
+                    // already read
+                }
+        }
+    }
+
+    /**
+     * Runs the replay command: sends the queries of a log to the resolver, at the pace of the
+     * log (the default), at a fixed rate, or from a fixed number of workers, and prints a summary
+     * of the replay to standard error.
+     *
+     * @param commandArgs Arguments of the command: file and, optionally, how queries are sent:
+     *                    speed=X to multiply the pace of the log by X, qps=N to send N queries
+     *                    per second, or workers=N to keep N queries in progress.
+     */
+    private static void runReplay(String[] commandArgs) {
+        QueryReplay replay = QueryReplay.atLogTimes(1);
+        if (commandArgs.length == 3) {
+            String[] option = commandArgs[2].split("=", 2);
+            try {
+                double value = option.length == 2 ? Double.parseDouble(option[1]) : -1;
+                if (!(value > 0) || Double.isInfinite(value))
+                    throw new NumberFormatException();
+                if (option[0].equalsIgnoreCase("speed"))
+                    replay = QueryReplay.atLogTimes(value);
+                else if (option[0].equalsIgnoreCase("qps"))
+                    replay = QueryReplay.atFixedRate(value);
+                else if (option[0].equalsIgnoreCase("workers") && value == (int) value)
+                    replay = QueryReplay.withWorkers((int) value);
+                else
+                    throw new NumberFormatException();
+            } catch (NumberFormatException ex) {
+                System.err.println("Invalid call. Format:\n\treplay file [speed=X|qps=N|workers=N]");
+                return;
+            }
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(commandArgs[1]))) {
+            long elapsed = replay.run(() -> {
+                try {
+                    return reader.readLine();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+            replay.printSummary(elapsed, System.err);
+        } catch (FileNotFoundException ex) {
+            System.err.println("Cannot read " + commandArgs[1] + " (" + ex.getMessage() + ").");
+        } catch (IOException | UncheckedIOException ex) {
+            System.err.println("Replay failed (" + ex.getMessage() + ").");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Finds all results for a host name and type and prints them on the standard output.
+     *
+     * @param hostName Fully qualified domain name of the host being searched.
+     * @param type     Record type for search.
+     */
+    private static void findAndPrintResults(String hostName, RecordType type) {
+
+        DNSNode node;
+        try {
+            node = new DNSNode(hostName, type);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.out.printf("%-30s %-5s %-8d %s\n", hostName, type, -1, "0.0.0.0");
+            return;
+        }
+        Set<ResourceRecord> results;
+        try {
+            results = submitLookup(node).get();
+        } catch (InterruptedException | ExecutionException ex) {
+            results = Collections.emptySet();
+        }
+        System.out.print(formatResults(hostName, type, results)); // with the name as entered
+    }
+
+    /**
+     * Resolves a node from start to finish, starting the search at the closest name server
+     * known by the cache (or at the current root server if none is known).
+     * Each call uses its own resolution context, so this method may be called from several
+     * threads at the same time.
+     *
+     * @param node Host name and record type to be resolved.
+     * @return A set of resource records corresponding to the specific query requested.
+     */
+    static Set<ResourceRecord> resolve(DNSNode node) {
+        return resolve(new ResolutionContext(node.getName()), node);
+    }
+
+    /**
+     * Resolves a node from start to finish with a given resolution context, which callers may
+     * inspect afterwards, e.g., to know whether the answer came from the cache. The resolution
+     * is counted as a single cache hit or miss, however many records it read from the cache.
+     *
+     * @param context New context for this resolution.
+     * @param node    Host name and record type to be resolved.
+     * @return A set of resource records corresponding to the specific query requested.
+     */
+    static Set<ResourceRecord> resolve(ResolutionContext context, DNSNode node) {
+        Set<ResourceRecord> results = getResults(context, node, 0);
+        cache.recordLookup(!context.hasMissedCache());
+        return results;
+    }
+
+    /**
+     * Schedules the resolution of a node in the worker pool.
+     *
+     * @param node Host name and record type to be resolved.
+     * @return A future that completes with the results of the resolution.
+     */
+    static Future<Set<ResourceRecord>> submitLookup(DNSNode node) {
+        return workers.submit(() -> resolve(node));
+    }
+
+    /**
+     * Schedules the refresh of a popular node in the worker pool. Called by the cache, which
+     * still holds the records of the node, so the refresh must not wait for anything.
+     *
+     * @param node Host name and record type to be refreshed.
+     */
+    private static void scheduleRefresh(DNSNode node) {
+        try {
+            workers.execute(() -> refresh(node));
+        } catch (RejectedExecutionException ex) {
+            // shutting down
+        }
+    }
+
+    /**
+     * Queries a node again even though its records are still cached, so the cache receives new
+     * records before the current ones expire. The query starts at the closest known zone and
+     * follows referrals; if a referral has no glue, the refresh gives up and the records simply
+     * expire. Like a resolution, the refresh is registered as querying servers for the node, so
+     * a lookup of the node at the same time waits for it instead of sending the same queries;
+     * if another resolution is already querying servers for the node, there is nothing to do.
+     *
+     * @param node Host name and record type to be refreshed.
+     */
+    private static void refresh(DNSNode node) {
+        CompletableFuture<Void> flight = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(node, flight) != null)
+            return;
+
+        try {
+            ResolutionContext context = new ResolutionContext(node.getName());
+            List<InetAddress> servers = findStartServers(node.getName());
+            for (int referrals = 0; servers != null && referrals <= MAX_REFERRALS; referrals++) {
+                retrieveResultsFromServer(context, node, servers);
+                servers = context.getNextServers();
+                context.setNextServers(null);
+            }
+        } finally {
+            inFlight.remove(node, flight);
+            flight.complete(null);
+        }
+    }
+
+    /**
+     * Finds all the result for a specific node.
+     *
+     * @param context          State of the resolution this search is part of.
+     * @param node             Host and record type to be used for search.
+     * @param indirectionLevel Control to limit the number of recursive calls due to CNAME redirection.
+     *                         The initial call should be made with 0 (zero), while recursive calls for
+     *                         regarding CNAME results should increment this value by 1. Once this value
+     *                         reaches MAX_INDIRECTION_LEVEL, the function prints an error message and
+     *                         returns an empty set.
+     * @return A set of resource records corresponding to the specific query requested.
+     */
+    private static Set<ResourceRecord> getResults(ResolutionContext context, DNSNode node, int indirectionLevel) {
+        // return empty set if max indirection level is reached
+        if (indirectionLevel > MAX_INDIRECTION_LEVEL) {
+            System.err.println("Maximum number of indirection levels reached.");
+            return Collections.emptySet();
+        }
+
+        DNSNode cnameNode = new DNSNode(node.getName(), RecordType.CNAME);
+        Set<ResourceRecord> cnameRecords = cache.peek(cnameNode);
+        if (!cnameRecords.isEmpty()) {
+            // if a CNAME record exists for the node
+            for (ResourceRecord cnameRecord : cnameRecords) {
+                DomainName newCnameQuery = cnameRecord.getNameResult();
+                DNSNode newQuery = new DNSNode(newCnameQuery, node.getType());
+                while (true) {
+                    if (indirectionLevel > MAX_INDIRECTION_LEVEL) {
+                        System.err.println("Maximum number of indirection levels reached.");
+                        return Collections.emptySet();
+                    }
+                    // to check if there's CNAME RRs that are already in the cache
+                    Set<ResourceRecord> cachedCnameResults = cache.peek(new DNSNode(newCnameQuery, RecordType.CNAME));
+                    if (cachedCnameResults.isEmpty()) {
+                        cnameNode = new DNSNode(newQuery.getName(), node.getType());
+                        break;
+                    } else {
+                        for (ResourceRecord result : cachedCnameResults) {
+                            // follow the CNAME into the cache
+                            newCnameQuery = result.getNameResult();
+                            newQuery = new DNSNode(newCnameQuery, node.getType());
+                            indirectionLevel++;
+                        }
+                    }
+                }
+            }
+        }
+
+        node = new DNSNode(cnameNode.getName(), node.getType());
+
+        // a cached negative answer means the name or type does not exist; don't ask again
+        if (cache.getNegativeResult(node) != null)
+            return Collections.emptySet();
+
+        // look for record in cache; if found return
+        Set<ResourceRecord> results = cache.peek(node);
+        if (results.isEmpty()) {
+            context.setMissedCache();
+            if (!context.isResolving(node))
+                return resolveOnce(context, node, indirectionLevel);
+            if (context.getCurrentServers().isEmpty())
+                context.setCurrentServers(findStartServers(node.getName()));
+            retrieveResultsFromServer(context, node, context.getCurrentServers());
+            if (cache.getNegativeResult(node) != null)
+                return Collections.emptySet();
+            results = cache.peek(node);
+        }
+
+        // if it's looking for a CNAME
+        if (!results.isEmpty()) {
+            return results;
+        }
+
+        // if the DNSNode is a CNAME, have to do recursion to handle the root domain
+        cnameNode = new DNSNode(node.getName(), RecordType.CNAME);
+        cnameRecords = cache.peek(cnameNode);
+        if (node.getType() != RecordType.CNAME && !cnameRecords.isEmpty()) {
+            // if the node we're looking for is not in the cache and is not a CNAME, but a CNAME exists in the cache
+            // do a query again with the CNAME -> look for the IP address of the CNAME
+            for (ResourceRecord cnameRecord : cnameRecords) {
+                DomainName newCnameQuery = cnameRecord.getNameResult();
+                DNSNode newQuery = new DNSNode(newCnameQuery, node.getType());
+
+                while (true) {
+                    if (indirectionLevel > MAX_INDIRECTION_LEVEL) {
+                        System.err.println("Maximum number of indirection levels reached.");
+                        return Collections.emptySet();
+                    }
+                    // to check if there's CNAME RRs that are already in the cache
+                    Set<ResourceRecord> cachedCnameResults = cache.peek(new DNSNode(newCnameQuery, RecordType.CNAME));
+                    if (cachedCnameResults.isEmpty()) {
+                        break;
+                    } else {
+                        for (ResourceRecord result : cachedCnameResults) {
+                            // follow the CNAME into the cache
+                            newCnameQuery = result.getNameResult();
+                            newQuery = new DNSNode(newCnameQuery, node.getType());
+                            indirectionLevel++;
+                        }
+                    }
+                }
+                return getResults(context, newQuery, indirectionLevel + 1);
+            }
+            // ----- end
+        }
+
+        // if there are next servers, query with new servers
+        if (context.getNextServers() != null) {
+            context.setCurrentServers(context.getNextServers());
+            context.setNextServers(null);
+            return getResults(context, node, indirectionLevel); // redo search with new servers
+        } else if (context.getNextNSRecord() != null) {
+            DNSNode resolveNSNode = new DNSNode(context.getNextNSRecord(), RecordType.A);
+            context.setNextNSRecord(null);
+            Set<ResourceRecord> nsRecords = getResults(context, resolveNSNode, 0);
+            if (!nsRecords.isEmpty()) {
+                List<InetAddress> servers = new ArrayList<>(nsRecords.size());
+                for (ResourceRecord nsRecord : nsRecords)
+                    servers.add(nsRecord.getInetResult());
+                context.setCurrentServers(servers);
+                return getResults(context, node, 0);
+            }
+        }
+
+        // check in cache for the result and return (retrieveResultsFromServer doesn't return, only caches)
+        return cache.peek(node);
+    }
+
+    /**
+     * Resolves a node that is not cached, unless another resolution is already querying servers
+     * for the same node: in that case, waits for it to complete and uses the results it cached
+     * instead of sending the same queries again. The wait is bounded by QUERY_TIMEOUT, so
+     * resolutions waiting for each other (e.g., for the addresses of each other's name servers)
+     * eventually query the servers themselves.
+     *
+     * @param context          State of the resolution this search is part of.
+     * @param node             Host and record type to be resolved.
+     * @param indirectionLevel Number of CNAME redirections followed so far.
+     * @return A set of resource records corresponding to the specific query requested.
+     */
+    private static Set<ResourceRecord> resolveOnce(ResolutionContext context, DNSNode node, int indirectionLevel) {
+        CompletableFuture<Void> flight = new CompletableFuture<>();
+        CompletableFuture<Void> leader = inFlight.putIfAbsent(node, flight);
+        if (leader != null) {
+            if (awaitResolution(leader))
+                return getResults(context, node, indirectionLevel); // from the cache, or query again if it failed
+            flight = null; // query the servers without letting others wait for this resolution
+        }
+
+        context.setResolving(node, true);
+        try {
+            return getResults(context, node, indirectionLevel);
+        } finally {
+            context.setResolving(node, false);
+            if (flight != null) {
+                inFlight.remove(node, flight);
+                flight.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Waits for another resolution of the same node to complete.
+     *
+     * @param flight Future completed by the other resolution.
+     * @return true if the other resolution completed, false if the wait timed out.
+     */
+    private static boolean awaitResolution(CompletableFuture<Void> flight) {
+        try {
+            flight.get(QUERY_TIMEOUT, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException | ExecutionException ex) {
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Returns the servers a query for a name should be sent to first: the name servers of the
+     * deepest enclosing zone whose delegation is cached, or the root server otherwise.
+     *
+     * @param name Domain name being resolved.
+     * @return Addresses of the servers to query.
+     */
+    private static List<InetAddress> findStartServers(DomainName name) {
+        List<InetAddress> servers = cache.findClosestNameServers(name);
+        return servers.isEmpty() ? Collections.singletonList(rootServer) : servers;
+    }
+
+    /**
+     * Retrieves DNS results from the name servers of a zone. Queries are sent in iterative mode,
+     * and the query is repeated with new servers if the provided ones are non-authoritative.
+     * Results are stored in the cache.
+     *
+     * @param context State of the resolution this query is part of.
+     * @param node    Host name and record type to be used for the query.
+     * @param servers Addresses of the name servers of the zone, in order of preference.
+     */
+    private static void retrieveResultsFromServer(ResolutionContext context, DNSNode node, List<InetAddress> servers) {
+
+        // send the query through the transport, hedged across the servers of the zone
+        ByteBuffer received = sendQuery(context, node, servers);
+
+        if (received == null) // no packet received, break and print -1
+            return;
+
+        // decode the received packet
+        DNSMessage response;
+        try {
+            response = decodeDNSQuery(context, received);
+        } finally {
+            transport.release(received);
+        }
+        if (response == null)
+            return;
+
+        // receive response datagram
+        boolean isAuthoritative = (response.getAA() == 1);
+
+        // decode response datagram
+        if (verboseTracing) {
+            System.out.printf("Response ID: %d Authoritative = %b\n", response.getQueryId(), isAuthoritative);
+
+            /* The next line consists of 2 spaces, the word Answers, followed by a space and the number 
+            of response records in the answer in parenthesis. */
+            System.out.printf("  Answers (%d)\n", response.getAnCount());
+            for (ResourceRecord record : response.getAnswerRRs()) {
+                verbosePrintResourceRecord(record, record.getType().getCode());
+            }
+            System.out.printf("  Nameservers (%d)\n", response.getNsCount());
+            for (ResourceRecord record : response.getAuthorityRRs()) {
+                verbosePrintResourceRecord(record, record.getType().getCode());
+            }
+            System.out.printf("  Additional Information (%d)\n", response.getArCount());
+            for (ResourceRecord record : response.getAdditionalRRs()) {
+                verbosePrintResourceRecord(record, record.getType().getCode());
+            }
+
+        }
+        if (!isAuthoritative) {
+            // if the response isn't authoritative
+            List<ResourceRecord> additional = filterARecords(response.getAdditionalRRs());
+            if (additional.size() >= 1) {
+                // set next DNS servers to query as the additional records, in order
+                List<InetAddress> nextServers = new ArrayList<>(additional.size());
+                for (ResourceRecord resourceRecord : additional) {
+                    InetAddress address = resourceRecord.getInetResult();
+                    if (nextServers.contains(address))
+                        continue;
+                    if (resourceRecord.getNode().getName().equals(context.getCurrentDomain()))
+                        nextServers.add(0, address);
+                    else
+                        nextServers.add(address);
+                }
+                context.setNextServers(nextServers);
+            } else {
+                // if the response is authoritative
+                List<ResourceRecord> authorities = filterNSRecords(response.getAuthorityRRs());
+                if (authorities.size() >= 1) {
+                    // if there's name server records, the name server is resolved from the closest known zone
+                    context.setCurrentServers(Collections.emptyList());
+                    for (ResourceRecord authority : authorities) {
+                        if (authority.getNode().getName().equals(context.getCurrentDomain())) {
+                            context.setNextNSRecord(authority.getNameResult());
+                            return;
+                        }
+                    }
+                    context.setNextNSRecord(authorities.get(0).getNameResult());
+                }
+            }
+        } else {
+            // if the server is authoritative, the next query starts again from the closest known zone
+            context.setCurrentServers(Collections.emptyList());
+            if (response.getTC() == 0) // a truncated response may be missing the records asked for
+                cacheNegativeResult(node, response);
+        }
+    }
+
+    /**
+     * Caches a negative result (RFC 2308) if an authoritative response says that the queried
+     * name does not exist (NXDOMAIN), or that it has no record of the queried type (NODATA). If
+     * the answer section follows a CNAME chain, the negative result applies to the last name of
+     * the chain. Responses without an SOA record in the authority section are not cached.
+     *
+     * @param node     Host name and record type that were queried.
+     * @param response Authoritative response to the query.
+     */
+    private static void cacheNegativeResult(DNSNode node, DNSMessage response) {
+        if (response.getNegativeTtl() < 0)
+            return;
+        boolean nameError = response.getRCODE() == RCODE_NAME_ERROR;
+        if (!nameError && response.getRCODE() != 0)
+            return;
+
+        DomainName name = node.getName();
+        for (int i = 0; i <= MAX_INDIRECTION_LEVEL; i++) {
+            DomainName next = null;
+            for (ResourceRecord record : response.getAnswerRRs()) {
+                if (!record.getNode().getName().equals(name))
+                    continue;
+                if (record.getType() == node.getType())
+                    return; // not a negative answer
+                if (record.getType() == RecordType.CNAME)
+                    next = record.getNameResult();
+            }
+            if (next == null)
+                break;
+            name = next;
+        }
+
+        long ttl = Math.min(response.getNegativeTtl(), MAX_NEGATIVE_TTL);
+        cache.addNegativeResult(new NegativeResult(new DNSNode(name, node.getType()), ttl, nameError));
+    }
+
+    /**
+     * Returns a list of only AR resource records from a list of RRs
+     *
+     * @param records list of records to filter
+     * @return a list of only name server records from the input list
+     */
+    private static List<ResourceRecord> filterARecords(List<ResourceRecord> records) {
+        List<ResourceRecord> aRecords = new ArrayList<>();
+        for (ResourceRecord record : records) {
+            if (record.getType() == RecordType.A) {
+                aRecords.add(record);
+            }
+        }
+        return aRecords;
+    }
+
+    /**
+     * Returns a list of only NS resource records from a list of RRs
+     *
+     * @param records list of records to filter
+     * @return a list of only name server records from the input list
+     */
+    private static List<ResourceRecord> filterNSRecords(List<ResourceRecord> records) {
+        List<ResourceRecord> nameServerRecords = new ArrayList<>();
+        for (ResourceRecord record : records) {
+            if (record.getType() == RecordType.NS) {
+                nameServerRecords.add(record);
+            }
+        }
+        return nameServerRecords;
+    }
+
+    /**
+     * Sends a query to the name servers of a zone and waits for the first response. Servers are
+     * ordered by their smoothed round-trip time, and the query is sent to the first one. A new
+     * query is sent to the next server (in turn, so a different server whenever the zone has
+     * several) when either:
+     * - the retransmission timeout of the server queried last expires, which also backs off
+     *   the timeout of that server; or
+     * - the hedge delay passes without any response, which only happens once per question; or
+     * - the server queried last fails or refuses to answer (see isLame()), which counts against
+     *   that server, while the queries to the other servers stay in flight.
+     * A server that rejects the OPT record of a query (see rejectsEdns()) is queried again right
+     * away without it, and is remembered as not supporting EDNS.
+     * Queries stay in flight until a usable response is received for any of them; the other
+     * queries are then cancelled. Up to MAX_QUERIES_IN_FLIGHT queries are sent, and the question is
+     * abandoned after QUERY_TIMEOUT.
+     *
+     * Queries are sent through the shared transport, so only the calling resolution waits for
+     * the response while other queries remain in flight. The returned buffer must be given back
+     * with transport.release() once decoded. If the response to a UDP query is truncated (TC),
+     * the query is sent again over TCP to the server that answered, and the truncated response is
+     * only used if that fails.
+     *
+     * @param context State of the resolution, which provides the query buffers.
+     * @param node    Host name and record type queried.
+     * @param servers Addresses of the name servers of the zone.
+     * @return buffer holding the response, or null if no response was received
+     */
+    private static ByteBuffer sendQuery(ResolutionContext context, DNSNode node, List<InetAddress> servers) {
+        servers = infrastructure.order(servers);
+        List<Attempt> attempts = new ArrayList<>(ResolutionContext.MAX_QUERIES_IN_FLIGHT);
+        Attempt answered = null;
+        try {
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(QUERY_TIMEOUT);
+            long hedgeAt = start + getHedgeDelay();
+            boolean hedged = servers.size() < 2;
+
+            Attempt last = sendAttempt(context, node, servers.get(0), attempts, useTcp);
+            for (int sent = 1; answered == null; sent++) {
+                if (sent == ResolutionContext.MAX_QUERIES_IN_FLIGHT) {
+                    answered = awaitReply(context, attempts, deadline, null);
+                    break;
+                }
+
+                long retryAt = last != null ? last.sentAt + last.timeout : System.nanoTime();
+                boolean hedge = !hedged && hedgeAt - retryAt < 0;
+                long wakeUp = hedge ? hedgeAt : retryAt;
+                answered = awaitReply(context, attempts, deadline - wakeUp < 0 ? deadline : wakeUp, last);
+                if (answered != null || System.nanoTime() - deadline >= 0)
+                    break;
+
+                Attempt rejected = findEdnsRejection(attempts);
+                if (rejected != null) {
+                    // ask the same server again, without EDNS this time (RFC 6891, section 7)
+                    rejected.ednsRejected = false;
+                    last = sendAttempt(context, node, rejected.server.getAddress(), attempts, rejected.tcp);
+                    continue;
+                }
+                if (last != null && last.failed) {
+                    // the server will not answer this question, query the next one right away
+                } else if (hedge) {
+                    hedged = true;
+                } else if (last != null) {
+                    last.timedOut = true;
+                    infrastructure.recordTimeout(last.server.getAddress(), last.getElapsedTime());
+                }
+                last = sendAttempt(context, node, servers.get(sent % servers.size()), attempts, useTcp);
+            }
+
+            if (answered != null && !answered.tcp && isTruncated(answered.reply.getNow(null))) {
+                // the response did not fit in a datagram, ask the same server over TCP (RFC 7766)
+                Attempt retry = sendAttempt(context, node, answered.server.getAddress(), attempts, true);
+                long tcpDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(QUERY_TIMEOUT);
+                if (retry != null && awaitReply(context, Collections.singletonList(retry), tcpDeadline, null) != null)
+                    answered = retry;
+            }
+            // all attempts failed, just return -1
+            return answered == null ? null : answered.reply.getNow(null);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            // stop waiting for other responses, and give back those already received
+            for (Attempt attempt : attempts) {
+                if (attempt == answered)
+                    continue;
+                if (attempt.reply.cancel(false)) {
+                    if (!attempt.timedOut)
+                        infrastructure.recordAbandoned(attempt.server.getAddress(), attempt.getElapsedTime());
+                } else {
+                    attempt.reply.thenAccept(transport::release);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if a response says that the server failed (SERVFAIL), refused (REFUSED) or
+     * does not know how (NOTIMP) to answer the question. Such responses say nothing about the
+     * name queried, so another server of the zone should be asked instead.
+     */
+    private static boolean isLame(ByteBuffer response) {
+        int rcode = response.get(3) & 0x0F;
+        return rcode == RCODE_SERVER_FAILURE || rcode == RCODE_REFUSED || rcode == RCODE_NOT_IMPLEMENTED;
+    }
+
+    /**
+     * Returns true if a response to a query with an OPT record says that the server does not
+     * support EDNS: a FORMERR or NOTIMP response code, without an OPT record in the response.
+     *
+     * @param context  State of the resolution, which provides the decoder.
+     * @param response Response to a query with an OPT record.
+     */
+    private static boolean rejectsEdns(ResolutionContext context, ByteBuffer response) {
+        int rcode = response.get(3) & 0x0F;
+        if (rcode != RCODE_FORMAT_ERROR && rcode != RCODE_NOT_IMPLEMENTED)
+            return false;
+        try {
+            return !context.getDecoder().reset(response).hasOptRecord();
+        } catch (IndexOutOfBoundsException ex) {
+            return true; // too malformed to tell, so try without EDNS
+        }
+    }
+
+    /**
+     * Returns a query whose server rejected EDNS and that was not sent again yet, or null.
+     */
+    private static Attempt findEdnsRejection(List<Attempt> attempts) {
+        for (Attempt attempt : attempts)
+            if (attempt.ednsRejected)
+                return attempt;
+        return null;
+    }
+
+    /**
+     * Returns true if a response has the TC (truncation) flag set.
+     */
+    private static boolean isTruncated(ByteBuffer response) {
+        return (response.get(2) & 0x02) != 0;
+    }
+
+    /**
+     * Encodes a query for a node with a new query ID and sends it to a server. Since every
+     * query has its own ID, the response identifies the query it answers, and the round-trip
+     * time of a UDP query is recorded, globally and for the server, when its response arrives.
+     * TCP round trips are not recorded, since they include the time to open connections.
+     * The query ID is released once the query is complete, whether it was answered or not.
+     *
+     * @param attempts Queries already sent for this question. The new query is added to it if
+     *                 it could be sent.
+     * @param tcp      true to send the query over TCP, false to send it over UDP.
+     * @return The query sent, or null if it could not be sent.
+     */
+    private static Attempt sendAttempt(ResolutionContext context, DNSNode node, InetAddress server,
+                                       List<Attempt> attempts, boolean tcp) {
+        int queryId = queryIds.allocate();
+        if (queryId < 0)
+            return null; // every ID is used by a query in flight
+        ByteBuffer query = tcp ? context.getTcpQueryBuffer() : context.getQueryBuffer(attempts.size());
+        encoder.encodeQuery(queryId, node, query, infrastructure.supportsEdns(server));
+        InetSocketAddress serverAddress = new InetSocketAddress(server, serverPort);
+        if (verboseTracing)
+            printQuery(serverAddress, query, node);
+
+        long timeout = TimeUnit.MICROSECONDS.toNanos(infrastructure.getRetransmissionTimeout(server));
+        Attempt attempt = new Attempt(serverAddress, query, timeout, tcp, query.getShort(10) != 0);
+        try {
+            attempt.reply = tcp ? tcpTransport.send(serverAddress, query) : transport.send(serverAddress, query);
+        } catch (IOException ex) {
+            queryIds.release(queryId);
+            return null;
+        }
+        attempt.reply.whenComplete((response, ex) -> queryIds.release(queryId));
+        if (!tcp)
+            attempt.reply.thenAccept(response -> {
+                long rtt = attempt.getElapsedTime();
+                upstreamLatency.record(rtt);
+                infrastructure.recordRtt(server, rtt);
+            });
+        attempts.add(attempt);
+        return attempt;
+    }
+
+    /**
+     * Waits until one of the queries sent for a question receives a usable response. A query
+     * whose response is lame (see isLame()) is marked as failed and counted against its server,
+     * and the wait goes on for the other queries. So is a query whose server rejected EDNS (see
+     * rejectsEdns()), which is marked to be sent again instead.
+     *
+     * @param context  State of the resolution, which provides the decoder.
+     * @param attempts Queries sent for the question.
+     * @param deadline Time at which to stop waiting, as given by System.nanoTime().
+     * @param watched  Query whose failure ends the wait, so that the next server can be queried
+     *                 without waiting for its retransmission timeout, or null. Unless null, the
+     *                 wait also ends when a server rejects EDNS.
+     * @return The query that received a usable response, or null if none did before the
+     * deadline, before the wait ended as described above, or before every query was complete.
+     */
+    private static Attempt awaitReply(ResolutionContext context, List<Attempt> attempts, long deadline,
+                                      Attempt watched) throws InterruptedException {
+        while (true) {
+            List<CompletableFuture<ByteBuffer>> waiting = new ArrayList<>(attempts.size());
+            boolean ednsRejected = false;
+            for (Attempt attempt : attempts) {
+                if (!attempt.reply.isDone()) {
+                    waiting.add(attempt.reply);
+                } else if (!attempt.reply.isCompletedExceptionally() && !attempt.failed) {
+                    ByteBuffer response = attempt.reply.getNow(null);
+                    if (attempt.edns && rejectsEdns(context, response)) {
+                        attempt.failed = true;
+                        attempt.ednsRejected = ednsRejected = true;
+                        infrastructure.recordNoEdns(attempt.server.getAddress());
+                        if (verboseTracing)
+                            System.out.printf("EDNS rejected by %s\n", attempt.server.getAddress().getHostAddress());
+                        continue;
+                    }
+                    if (!isLame(response))
+                        return attempt;
+                    attempt.failed = true;
+                    infrastructure.recordFailure(attempt.server.getAddress());
+                    if (verboseTracing)
+                        System.out.printf("Lame response from %s\n", attempt.server.getAddress().getHostAddress());
+                }
+            }
+            long remaining = deadline - System.nanoTime();
+            if (waiting.isEmpty() || remaining <= 0 || (watched != null && (watched.failed || ednsRejected)))
+                return null;
+            try {
+                CompletableFuture.anyOf(waiting.toArray(new CompletableFuture<?>[0])).get(remaining, TimeUnit.NANOSECONDS);
+            } catch (ExecutionException | CancellationException | TimeoutException ex) {
+                // checked again above
+            }
+        }
+    }
+
+    /**
+     * Returns how long to wait for the first server of a zone before also querying the second
+     * one: the HEDGE_PERCENTILE of the round-trip times measured so far, so only the slowest
+     * queries are hedged.
+     *
+     * @return The hedge delay, in nanoseconds.
+     */
+    private static long getHedgeDelay() {
+        if (upstreamLatency.getCount() < MIN_HEDGE_SAMPLES)
+            return TimeUnit.MILLISECONDS.toNanos(DEFAULT_HEDGE_DELAY);
+        long delay = upstreamLatency.getValueAtPercentile(HEDGE_PERCENTILE);
+        return TimeUnit.MICROSECONDS.toNanos(Math.max(delay, TimeUnit.MILLISECONDS.toMicros(MIN_HEDGE_DELAY)));
+    }
+
+    /**
+     * Prints the line describing a query being sent, when tracing is on.
+     */
+    private static void printQuery(InetSocketAddress server, ByteBuffer query, DNSNode node) {
+        System.out.print("\n\n");
+        System.out.printf("Query ID     %d %s  %s --> %s\n", query.getShort(0) & 0xFFFF, node.getHostName(),
+                node.getType(), server.getAddress().getHostAddress());
+    }
+
+    /**
+     * Decodes a DNS response in place, and stores its records in the cache. Returns a query
+     * message, or null if the response is malformed.
+     */
+    private static DNSMessage decodeDNSQuery(ResolutionContext context, ByteBuffer response) {
+        DNSMessage message;
+        try {
+            message = context.getDecoder().reset(response).decode();
+        } catch (IndexOutOfBoundsException | IllegalArgumentException ex) {
+            if (verboseTracing)
+                System.out.println("Malformed response: " + ex.getMessage());
+            return null;
+        }
+
+        for (ResourceRecord record : message.getAnswerRRs())
+            cache.addResult(record);
+        for (ResourceRecord record : message.getAuthorityRRs())
+            cache.addResult(record);
+        for (ResourceRecord record : message.getAdditionalRRs())
+            cache.addResult(record);
+        return message;
+    }
+
+    /**
+     * Utility function to print a datagram packet in bits, as formatted in RFCs. For debugging purposes.
+     */
+    private static void printDatagramPacketInBits(byte[] response) {
+        int linecount = 1; // num bytes printed, should be 2
+        for (int i = 0; i < response.length; i++) {
+            for (int j = 0; j < 8; j++) {
+                System.out.print(getBitAtPosition(response[i], j));
+            }
+            linecount++;
+            if (linecount > 2) {
+                System.out.print("\n");
+                linecount = 1;
+            }
+        }
+
+    }
+
+    /**
+     * Utility function to get a bit at a given position in a byte.
+     *
+     * @param inputByte
+     * @param position  Position from the left (as if the bits are an array)
+     * @return int (either 1 or 0) which is the bit at the given position
+     */
+    private static int getBitAtPosition(byte inputByte, int position) {
+        //System.out.print(inputByte);
+        int pos = 7 - position; // this is because a bitwise shift
+        // starts from the right side
+        // System.out.print((inputByte >> pos) & 1);
+        return ((inputByte >> pos) & 1);
+    }
+
+    /**
+     * Utility function for printing a byte array. For debugging purposes.
+     */
+    private static void printByteArray(byte[] byteArray) {
+        for (byte b : byteArray) {
+            System.out.print(String.format("%02X", b) + " ");
+        }
+        System.out.println();
+    }
+
+    private static void verbosePrintResourceRecord(ResourceRecord record, int rtype) {
+        if (verboseTracing)
+            System.out.format("       %-30s %-10d %-4s %s\n", record.getHostName(),
+                    record.getTTL(),
+                    record.getType() == RecordType.OTHER ? rtype : record.getType(),
+                    record.getTextResult());
+    }
+
+    /**
+     * Prints the counters of the DNS cache.
+     *
+     * @param stats Snapshot of the cache statistics.
+     */
+    private static void printCacheStatistics(CacheStatistics stats) {
+        System.out.printf("Cache size:   %d of %d nodes\n", stats.getSize(), stats.getMaximumSize());
+        System.out.printf("Hits:         %d\n", stats.getHitCount());
+        System.out.printf("Misses:       %d\n", stats.getMissCount());
+        System.out.printf("Hit rate:     %.2f%%\n", 100 * stats.getHitRate());
+        System.out.printf("Evictions:    %d\n", stats.getEvictionCount());
+        System.out.printf("Expirations:  %d\n", stats.getExpirationCount());
+    }
+
+    /**
+     * Prints the result of a DNS query.
+     *
+     * @param node    Host name and record type used for the query.
+     * @param results Set of results to be printed for the node.
+     */
+    private static void printResults(DNSNode node, Set<ResourceRecord> results) {
+        System.out.print(formatResults(node.getHostName(), node.getType(), results));
+    }
+
+    /**
+     * Formats the result of a DNS query the way printResults() prints it, one line per record.
+     *
+     * @param hostName Host name used for the query, as entered by the user.
+     * @param type     Record type used for the query.
+     * @param results  Set of results to be formatted for the query.
+     * @return The formatted lines, each ending with a newline.
+     */
+    static String formatResults(String hostName, RecordType type, Set<ResourceRecord> results) {
+        StringBuilder lines = new StringBuilder(64 * Math.max(results.size(), 1));
+        Formatter formatter = new Formatter(lines);
+        if (results.isEmpty())
+            formatter.format("%-30s %-5s %-8d %s\n", hostName,
+                    type, -1, "0.0.0.0");
+        for (ResourceRecord record : results) {
+            formatter.format("%-30s %-5s %-8d %s\n", hostName,
+                    type, record.getTTL(), record.getTextResult());
+        }
+        return lines.toString();
+    }
+
+    /**
+     * A query sent to one of the name servers of a zone for a question.
+     */
+    private static class Attempt {
+        private final InetSocketAddress server;
+        private final ByteBuffer query;
+        private final long sentAt = System.nanoTime();
+        private final long timeout; // retransmission timeout of the server, in nanoseconds
+        private final boolean tcp;
+        private final boolean edns; // the query has an OPT record
+        private CompletableFuture<ByteBuffer> reply;
+        private boolean timedOut;
+        private boolean failed; // the response was lame, or rejected EDNS
+        private boolean ednsRejected; // the server rejected EDNS, and was not queried again yet
+
+        private Attempt(InetSocketAddress server, ByteBuffer query, long timeout, boolean tcp, boolean edns) {
+            this.server = server;
+            this.query = query;
+            this.timeout = timeout;
+            this.tcp = tcp;
+            this.edns = edns;
+        }
+
+        /**
+         * Returns the time since the query was first sent, in microseconds.
+         */
+        private long getElapsedTime() {
+            return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentAt);
+        }
+    }
+}
@@ -21,6 +21,8 @@ public class DNSMessage {
     private int TC; // indicates if response is truncated (1 bit)
     private int RD; // indicates if query wants the name server to answer
     // the question by initiating recursive query (1 bit)
+    private long negativeTtl; // TTL for negative caching from the authority SOA record, or -1 if none
+    private int udpPayloadSize; // UDP payload size advertised in an OPT record (EDNS), or -1 if none
 
     // Variable number (qdCount) of Question records per DNS Message.
     ArrayList<DNSQuestionEntry> questions;
@@ -44,6 +46,8 @@ public class DNSMessage {
         this.AA = 0;
         this.TC = 0;
         this.RD = 0;
+        this.negativeTtl = -1;
+        this.udpPayloadSize = -1;
         this.questions = new ArrayList<DNSQuestionEntry>();
         this.answerRRs = new ArrayList<ResourceRecord>();
         this.authorityRRs = new ArrayList<ResourceRecord>();
@@ -186,6 +190,22 @@ public class DNSMessage {
         this.RD = RD;
     }
 
+    public long getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    public void setNegativeTtl(long negativeTtl) {
+        this.negativeTtl = negativeTtl;
+    }
+
+    public int getUdpPayloadSize() {
+        return udpPayloadSize;
+    }
+
+    public void setUdpPayloadSize(int udpPayloadSize) {
+        this.udpPayloadSize = udpPayloadSize;
+    }
+
 
 
 }
@@ -0,0 +1,369 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes DNS messages in place. The decoder is a flyweight over the buffer holding a message:
+ * header fields are read directly from the buffer with masks and shifts, and records are visited
+ * with a cursor that only skips over their names. A name is decoded when it is first requested,
+ * and the decoder remembers the offset of every label it decoded, so a compression pointer to a
+ * name (or to the end of a name) seen earlier in the same message does not walk the labels again.
+ *
+ * A decoder may be reused for any number of messages, but only by one thread at a time.
+ */
+public class DNSMessageDecoder {
+
+    private static final int HEADER_SIZE = 12;
+    private static final int FIXED_RECORD_SIZE = 10; // type, class, TTL and RDATA length
+    private static final int MAX_NAME_LENGTH = 255;
+    private static final int MEMO_SIZE = 64; // direct-mapped, a power of two
+
+    private ByteBuffer buffer;
+    private int generation;
+
+    // cursor over the records of the message
+    private int position;
+    private int recordNameOffset;
+    private int rdataOffset;
+
+    // names decoded in this message: the suffix starting at a label offset is memoName[i]
+    // from character memoStart[i], if memoKey[i] matches the generation and offset
+    private final long[] memoKey = new long[MEMO_SIZE];
+    private final String[] memoName = new String[MEMO_SIZE];
+    private final int[] memoStart = new int[MEMO_SIZE];
+    private final int[] labelOffsets = new int[MAX_NAME_LENGTH / 2];
+    private final int[] labelStarts = new int[MAX_NAME_LENGTH / 2];
+    private final StringBuilder nameBuilder = new StringBuilder(MAX_NAME_LENGTH);
+
+    /**
+     * Starts decoding a new message. The message is read from position 0 to the limit of the
+     * buffer, which must not be modified until decoding is complete. The cursor is placed at the
+     * start of the question section.
+     *
+     * @param message Buffer holding the message.
+     * @return This decoder.
+     */
+    public DNSMessageDecoder reset(ByteBuffer message) {
+        this.buffer = message;
+        this.generation++;
+        this.position = HEADER_SIZE;
+        this.rdataOffset = 0;
+        return this;
+    }
+
+    public int getQueryId() {
+        return buffer.getShort(0) & 0xFFFF;
+    }
+
+    public int getQr() {
+        return (buffer.get(2) >>> 7) & 0x1;
+    }
+
+    public int getOpCode() {
+        return (buffer.get(2) >>> 3) & 0xF;
+    }
+
+    public int getAA() {
+        return (buffer.get(2) >>> 2) & 0x1;
+    }
+
+    public int getTC() {
+        return (buffer.get(2) >>> 1) & 0x1;
+    }
+
+    public int getRD() {
+        return buffer.get(2) & 0x1;
+    }
+
+    public int getRA() {
+        return (buffer.get(3) >>> 7) & 0x1;
+    }
+
+    public int getZ() {
+        return (buffer.get(3) >>> 4) & 0x7;
+    }
+
+    public int getRCODE() {
+        return buffer.get(3) & 0xF;
+    }
+
+    public int getQdCount() {
+        return buffer.getShort(4) & 0xFFFF;
+    }
+
+    public int getAnCount() {
+        return buffer.getShort(6) & 0xFFFF;
+    }
+
+    public int getNsCount() {
+        return buffer.getShort(8) & 0xFFFF;
+    }
+
+    public int getArCount() {
+        return buffer.getShort(10) & 0xFFFF;
+    }
+
+    /**
+     * Decodes the complete message into a DNSMessage object. The negative TTL of the message is
+     * set from the first SOA record in the authority section, if any. An OPT pseudo-record
+     * (EDNS) in the additional section only sets the UDP payload size of the message, and is not
+     * returned as a resource record. Records that toResourceRecord() rejects (e.g., an A record
+     * whose address is not 4 bytes long) are left out, and the rest of the message is kept.
+     *
+     * @return The decoded message.
+     * @throws IndexOutOfBoundsException if the message is truncated or malformed.
+     */
+    public DNSMessage decode() {
+        DNSMessage message = new DNSMessage();
+        message.setQueryId(getQueryId());
+        message.setQr(getQr());
+        message.setOpCode(getOpCode());
+        message.setAA(getAA());
+        message.setTC(getTC());
+        message.setRD(getRD());
+        message.setRA(getRA());
+        message.setZ(getZ());
+        message.setRCODE(getRCODE());
+        message.setQdCount(getQdCount());
+        message.setAnCount(getAnCount());
+        message.setNsCount(getNsCount());
+        message.setArCount(getArCount());
+
+        position = HEADER_SIZE;
+        rdataOffset = 0;
+        for (int i = 0; i < message.getQdCount(); i++) {
+            int nameOffset = position;
+            position = skipName(position);
+            int qtype = buffer.getShort(position) & 0xFFFF;
+            int qclass = buffer.getShort(position + 2) & 0xFFFF;
+            position += 4;
+            message.addQuestion(new DNSQuestionEntry(readName(nameOffset), qtype, qclass));
+        }
+
+        for (int i = 0; i < message.getAnCount(); i++) {
+            nextRecord();
+            ResourceRecord record = toValidResourceRecord();
+            if (record != null)
+                message.addAnswerRR(record);
+        }
+        for (int i = 0; i < message.getNsCount(); i++) {
+            nextRecord();
+            ResourceRecord record = toValidResourceRecord();
+            if (record != null)
+                message.addAuthorityRR(record);
+            if (getRecordType() == RecordType.SOA.getCode() && message.getNegativeTtl() < 0) {
+                // the MINIMUM field is the last 4 bytes of the SOA data
+                long minimum = buffer.getInt(rdataOffset + getRdataLength() - 4) & 0xFFFFFFFFL;
+                message.setNegativeTtl(Math.min(getRecordTtl(), minimum));
+            }
+        }
+        for (int i = 0; i < message.getArCount(); i++) {
+            nextRecord();
+            if (getRecordType() == RecordType.OPT.getCode()) {
+                message.setUdpPayloadSize(getRecordClass()); // the class of an OPT record is the payload size
+            } else {
+                ResourceRecord record = toValidResourceRecord();
+                if (record != null)
+                    message.addAdditionalRR(record);
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Creates a resource record from the record at the cursor, or returns null if the record is
+     * invalid (see toResourceRecord()).
+     */
+    private ResourceRecord toValidResourceRecord() {
+        try {
+            return toResourceRecord();
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Moves the cursor to the next resource record. The first call after the question section
+     * was skipped (see skipQuestions()) or decoded places the cursor on the first answer.
+     */
+    public void nextRecord() {
+        if (rdataOffset > position)
+            position = rdataOffset + getRdataLength();
+        recordNameOffset = position;
+        int fixed = skipName(position);
+        rdataOffset = fixed + FIXED_RECORD_SIZE;
+        position = fixed;
+        // check that the record data is within the message
+        buffer.get(rdataOffset + getRdataLength() - 1);
+    }
+
+    /**
+     * Returns true if the additional section of the message has an OPT pseudo-record (EDNS).
+     * Moves the cursor to that record, or past the last record of the message.
+     *
+     * @throws IndexOutOfBoundsException if the message is truncated or malformed.
+     */
+    public boolean hasOptRecord() {
+        skipQuestions();
+        int firstAdditional = getAnCount() + getNsCount();
+        for (int i = 0; i < firstAdditional + getArCount(); i++) {
+            nextRecord();
+            if (i >= firstAdditional && getRecordType() == RecordType.OPT.getCode())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves the cursor past the question section, without decoding any question.
+     */
+    public void skipQuestions() {
+        position = HEADER_SIZE;
+        rdataOffset = 0;
+        for (int i = getQdCount(); i > 0; i--)
+            position = skipName(position) + 4;
+    }
+
+    public String getRecordName() {
+        return readName(recordNameOffset);
+    }
+
+    public int getRecordType() {
+        return buffer.getShort(rdataOffset - 10) & 0xFFFF;
+    }
+
+    public int getRecordClass() {
+        return buffer.getShort(rdataOffset - 8) & 0xFFFF;
+    }
+
+    /**
+     * Returns the TTL of the current record, in seconds. As required by RFC 2181, values with
+     * the most significant bit set are treated as zero.
+     */
+    public long getRecordTtl() {
+        int ttl = buffer.getInt(rdataOffset - 6);
+        return ttl < 0 ? 0 : ttl;
+    }
+
+    public int getRdataOffset() {
+        return rdataOffset;
+    }
+
+    public int getRdataLength() {
+        return buffer.getShort(rdataOffset - 2) & 0xFFFF;
+    }
+
+    /**
+     * Creates a resource record from the record at the cursor. Addresses are copied from the
+     * record data as raw bytes, and names in NS and CNAME records are decoded. The data of other
+     * record types is not decoded.
+     *
+     * @return A resource record with the content of the current record.
+     * @throws IllegalArgumentException if a name in the record is not a valid domain name, or
+     *                                  the address of an A or AAAA record is not 4 or 16 bytes
+     *                                  long respectively.
+     */
+    public ResourceRecord toResourceRecord() {
+        DomainName name = DomainName.of(getRecordName());
+        RecordType type = RecordType.getByCode(getRecordType());
+        long ttl = getRecordTtl();
+
+        if (type == RecordType.A || type == RecordType.AAAA) {
+            int length = getRdataLength();
+            byte[] address = new byte[length];
+            for (int i = 0; i < length; i++)
+                address[i] = buffer.get(rdataOffset + i);
+            return new ResourceRecord(name, type, ttl, address);
+        } else if (type == RecordType.CNAME || type == RecordType.NS) {
+            return new ResourceRecord(name, type, ttl, DomainName.of(readName(rdataOffset)));
+        }
+        return new ResourceRecord(name, type, ttl, "----");
+    }
+
+    /**
+     * Returns the offset of the first byte after a name, without decoding it.
+     */
+    private int skipName(int offset) {
+        while (true) {
+            int length = buffer.get(offset) & 0xFF;
+            if (length == 0)
+                return offset + 1;
+            if ((length & 0xC0) == 0xC0)
+                return offset + 2;
+            offset += 1 + length;
+        }
+    }
+
+    /**
+     * Decodes the name starting at a specific offset, following compression pointers. The
+     * suffix starting at each label is remembered, so later pointers to it can reuse it.
+     *
+     * @param offset Offset of the first label of the name.
+     * @return The name, with labels separated by dots and no trailing dot.
+     * @throws IndexOutOfBoundsException if the name is malformed.
+     */
+    private String readName(int offset) {
+        String memo = memoLookup(offset);
+        if (memo != null)
+            return memo;
+
+        StringBuilder name = nameBuilder;
+        name.setLength(0);
+        int labels = 0;
+        while (true) {
+            int length = buffer.get(offset) & 0xFF;
+            if (length == 0)
+                break;
+
+            if ((length & 0xC0) == 0xC0) {
+                int pointer = (length & 0x3F) << 8 | (buffer.get(offset + 1) & 0xFF);
+                if (pointer >= offset)
+                    throw new IndexOutOfBoundsException("Compression pointer does not point backwards");
+                int slot = memoSlot(pointer);
+                if (memoKey[slot] == memoKey(pointer)) {
+                    if (name.length() > 0)
+                        name.append('.');
+                    name.append(memoName[slot], memoStart[slot], memoName[slot].length());
+                    break;
+                }
+                offset = pointer;
+                continue;
+            }
+
+            if (labels == labelOffsets.length || name.length() + length >= MAX_NAME_LENGTH)
+                throw new IndexOutOfBoundsException("Name too long");
+            if (name.length() > 0)
+                name.append('.');
+            labelOffsets[labels] = offset;
+            labelStarts[labels] = name.length();
+            labels++;
+            for (int i = 1; i <= length; i++)
+                name.append((char) (buffer.get(offset + i) & 0xFF));
+            offset += 1 + length;
+        }
+
+        String result = name.toString();
+        for (int i = 0; i < labels; i++) {
+            int slot = memoSlot(labelOffsets[i]);
+            memoKey[slot] = memoKey(labelOffsets[i]);
+            memoName[slot] = result;
+            memoStart[slot] = labelStarts[i];
+        }
+        return result;
+    }
+
+    private String memoLookup(int offset) {
+        int slot = memoSlot(offset);
+        if (memoKey[slot] != memoKey(offset))
+            return null;
+        return memoStart[slot] == 0 ? memoName[slot] : memoName[slot].substring(memoStart[slot]);
+    }
+
+    private long memoKey(int offset) {
+        return (long) generation << 16 | offset;
+    }
+
+    private static int memoSlot(int offset) {
+        return (offset ^ (offset >>> 6)) & (MEMO_SIZE - 1);
+    }
+}
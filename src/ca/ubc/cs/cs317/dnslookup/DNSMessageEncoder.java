@@ -0,0 +1,137 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encodes DNS queries without allocating on the send path. The wire format of a query (header
+ * and question section) only depends on the node being queried, except for the 2-byte query ID.
+ * The encoder therefore keeps a template for each node it has encoded, and encoding a query is
+ * a copy of the template into the caller's buffer followed by a patch of the ID.
+ *
+ * Queries advertise the UDP payload size the resolver can receive in an OPT pseudo-record
+ * (EDNS(0), RFC 6891), so servers can send responses larger than 512 bytes instead of truncating
+ * them. The default of 1232 bytes fits in an unfragmented packet on almost any path. Queries to
+ * servers that do not support EDNS can be encoded without the OPT record, from the same template.
+ *
+ * Templates are kept for up to MAX_TEMPLATES nodes. When that limit is reached the templates
+ * are discarded and rebuilt as needed, which keeps the cost bounded without tracking use.
+ * This class is thread-safe.
+ */
+public class DNSMessageEncoder {
+
+    public static final int DEFAULT_EDNS_BUFFER_SIZE = 1232;
+    public static final int MIN_UDP_PAYLOAD_SIZE = 512; // without EDNS, as in RFC 1035
+    private static final int OPT_RECORD_SIZE = 11; // root name, type, class, TTL and empty data
+    // header, longest name, type, class and OPT record
+    public static final int MAX_QUERY_SIZE = 12 + DomainName.MAX_NAME_LENGTH + 4 + OPT_RECORD_SIZE;
+
+    private static final int MAX_TEMPLATES = 4096;
+    private static final int FLAGS = 0x0100; // standard query; same flags as the original encoder
+    private static final int CLASS_IN = 1;
+
+    private volatile int ednsBufferSize = DEFAULT_EDNS_BUFFER_SIZE;
+    private volatile Map<DNSNode, byte[]> templates = new ConcurrentHashMap<>();
+
+    /**
+     * Changes the UDP payload size advertised in the queries encoded afterwards.
+     *
+     * @param ednsBufferSize Payload size, between 512 and 65535 bytes, or 0 to send queries
+     *                       without an OPT record.
+     */
+    public void setEdnsBufferSize(int ednsBufferSize) {
+        if (ednsBufferSize != 0 && (ednsBufferSize < MIN_UDP_PAYLOAD_SIZE || ednsBufferSize > 0xFFFF))
+            throw new IllegalArgumentException("Invalid EDNS buffer size: " + ednsBufferSize);
+        this.ednsBufferSize = ednsBufferSize;
+        this.templates = new ConcurrentHashMap<>(); // built with the previous size
+    }
+
+    /**
+     * Returns the UDP payload size advertised in queries, or 0 if EDNS is disabled.
+     */
+    public int getEdnsBufferSize() {
+        return ednsBufferSize;
+    }
+
+    /**
+     * Returns the size of the largest response to a query sent over UDP: the advertised
+     * payload size, or 512 bytes if EDNS is disabled.
+     */
+    public int getMaxResponseSize() {
+        return Math.max(ednsBufferSize, MIN_UDP_PAYLOAD_SIZE);
+    }
+
+    /**
+     * Encodes a query for a node into a buffer. On return the buffer holds the query between
+     * position 0 and its limit, and can be sent as is.
+     *
+     * @param queryId ID of the query, between 0 and 65535.
+     * @param node    Host name and record type queried.
+     * @param out     Buffer the query is written to, with at least MAX_QUERY_SIZE bytes.
+     */
+    public void encodeQuery(int queryId, DNSNode node, ByteBuffer out) {
+        encodeQuery(queryId, node, out, true);
+    }
+
+    /**
+     * Encodes a query for a node into a buffer, with or without the OPT record.
+     *
+     * @param queryId ID of the query, between 0 and 65535.
+     * @param node    Host name and record type queried.
+     * @param out     Buffer the query is written to, with at least MAX_QUERY_SIZE bytes.
+     * @param edns    false to leave out the OPT record, e.g., for a server that rejects it.
+     *                Queries never have an OPT record if EDNS is disabled.
+     */
+    public void encodeQuery(int queryId, DNSNode node, ByteBuffer out, boolean edns) {
+        byte[] template = getTemplate(node);
+        boolean withOpt = template[11] != 0; // ARCOUNT, 1 if the template ends with an OPT record
+        out.clear();
+        out.put(template, 0, withOpt && !edns ? template.length - OPT_RECORD_SIZE : template.length);
+        out.putShort(0, (short) queryId);
+        if (withOpt && !edns)
+            out.putShort(10, (short) 0);
+        out.flip();
+    }
+
+    private byte[] getTemplate(DNSNode node) {
+        Map<DNSNode, byte[]> templates = this.templates; // read before the size, which is set first
+        byte[] template = templates.get(node);
+        if (template == null) {
+            template = buildTemplate(node, ednsBufferSize);
+            if (templates.size() >= MAX_TEMPLATES)
+                templates.clear();
+            templates.put(node, template);
+        }
+        return template;
+    }
+
+    /**
+     * Builds the wire format of a query for a node, with a query ID of 0, and an OPT record
+     * unless ednsBufferSize is 0.
+     */
+    private static byte[] buildTemplate(DNSNode node, int ednsBufferSize) {
+        ByteBuffer query = ByteBuffer.allocate(MAX_QUERY_SIZE);
+        query.putShort((short) 0); // ID, patched for each query
+        query.putShort((short) FLAGS);
+        query.putShort((short) 1); // QDCOUNT
+        query.putShort((short) 0); // ANCOUNT
+        query.putShort((short) 0); // NSCOUNT
+        query.putShort((short) (ednsBufferSize == 0 ? 0 : 1)); // ARCOUNT
+        node.getName().writeTo(query);
+        query.putShort((short) node.getType().getCode());
+        query.putShort((short) CLASS_IN);
+        if (ednsBufferSize != 0) {
+            query.put((byte) 0); // root name
+            query.putShort((short) RecordType.OPT.getCode());
+            query.putShort((short) ednsBufferSize); // class: UDP payload size
+            query.putInt(0); // TTL: extended RCODE, version 0, no flags
+            query.putShort((short) 0); // no options
+        }
+
+        byte[] template = new byte[query.position()];
+        query.flip();
+        query.get(template);
+        return template;
+    }
+}
@@ -1,23 +1,38 @@
 package ca.ubc.cs.cs317.dnslookup;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 
 /** DNS nodes can be used to specify an individual DNS query or the key to a specific result.
- * Each node represents a fully-qualified domain name (represented by hostName) and a record
- * type. Two nodes with the same host name and type are considered equal.
+ * Each node represents a fully-qualified domain name and a record type. Two nodes with the same
+ * name and type are considered equal. Names are kept in canonical form (see DomainName), so
+ * host names are compared ignoring case, both for equality and for ordering.
  */
 public class DNSNode implements Comparable<DNSNode>, Serializable {
 
-    private String hostName;
+    private DomainName name;
     private RecordType type;
+    private transient int hash; // computed once, nodes are used as hash keys in the cache
 
+    /**
+     * @throws IllegalArgumentException if the host name is not a valid domain name.
+     */
     public DNSNode(String hostName, RecordType type) {
-        this.hostName = hostName;
+        this(DomainName.of(hostName), type);
+    }
+
+    public DNSNode(DomainName name, RecordType type) {
+        this.name = name;
         this.type = type;
+        this.hash = 31 * name.hashCode() + type.getCode();
+    }
+
+    public DomainName getName() {
+        return name;
     }
 
     public String getHostName() {
-        return hostName;
+        return name.toString();
     }
 
     public RecordType getType() {
@@ -31,27 +46,27 @@ public class DNSNode implements Comparable<DNSNode>, Serializable {
 
         DNSNode dnsNode = (DNSNode) o;
 
-        if (!hostName.equals(dnsNode.hostName)) return false;
-        return type == dnsNode.type;
+        if (hash != dnsNode.hash || type != dnsNode.type) return false;
+        return name.equals(dnsNode.name);
     }
 
     @Override
     public int hashCode() {
-        int result = hostName.hashCode();
-        result = 31 * result + type.hashCode();
-        return result;
+        return hash;
     }
 
     @Override
     public String toString() {
-        return hostName + " (" + type + ")";
+        return name + " (" + type + ")";
     }
 
     @Override
     public int compareTo(DNSNode o) {
-        if (!hostName.equalsIgnoreCase(o.hostName))
-            return hostName.compareToIgnoreCase(o.hostName);
-        else
-            return type.compareTo(o.type);
+        int result = name.compareTo(o.name);
+        return result != 0 ? result : type.compareTo(o.type);
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+        return new DNSNode(name, type);
     }
 }
@@ -0,0 +1,142 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes DNS responses, as a server would, for the simulated hierarchy and the benchmarks. Names
+ * are compressed: each name (or end of a name) already written in the message is replaced by a
+ * pointer to it. Records must be added section by section: answers, then authority, then
+ * additional records.
+ */
+public class DNSResponseWriter {
+
+    public static final int ANSWER = 0;
+    public static final int AUTHORITY = 1;
+    public static final int ADDITIONAL = 2;
+
+    public static final int AUTHORITATIVE = 0x8400; // QR and AA set
+    public static final int REFERRAL = 0x8000; // QR set
+    public static final int FORMAT_ERROR = 1;
+    public static final int NAME_ERROR = 3;
+    public static final int REFUSED = 5;
+
+    private final ByteBuffer out = ByteBuffer.allocate(65535);
+    private final Map<String, Integer> nameOffsets = new HashMap<>();
+    private final int[] counts = new int[3];
+
+    /**
+     * Starts a response with one question.
+     *
+     * @param queryId ID of the query answered.
+     * @param flags   Flags and response code of the header, e.g., AUTHORITATIVE | NAME_ERROR.
+     * @param qname   Host name of the question.
+     * @param qtype   Record type code of the question.
+     */
+    public DNSResponseWriter(int queryId, int flags, String qname, int qtype) {
+        out.putShort((short) queryId);
+        out.putShort((short) flags);
+        out.putShort((short) 1);
+        out.putShort((short) 0);
+        out.putShort((short) 0);
+        out.putShort((short) 0);
+        writeName(qname);
+        out.putShort((short) qtype);
+        out.putShort((short) 1); // IN
+    }
+
+    public DNSResponseWriter address(int section, String name, int ttl, byte[] address) {
+        start(section, name, address.length == 4 ? RecordType.A.getCode() : RecordType.AAAA.getCode(), ttl);
+        out.putShort((short) address.length);
+        out.put(address);
+        return this;
+    }
+
+    public DNSResponseWriter name(int section, String name, RecordType type, int ttl, String target) {
+        start(section, name, type.getCode(), ttl);
+        int lengthOffset = out.position();
+        out.putShort((short) 0);
+        writeName(target);
+        out.putShort(lengthOffset, (short) (out.position() - lengthOffset - 2));
+        return this;
+    }
+
+    public DNSResponseWriter soa(int section, String zone, int ttl, int minimum) {
+        start(section, zone, RecordType.SOA.getCode(), ttl);
+        int lengthOffset = out.position();
+        out.putShort((short) 0);
+        writeName("ns1." + zone);
+        writeName("hostmaster." + zone);
+        out.putInt(1); // serial
+        out.putInt(7200); // refresh
+        out.putInt(3600); // retry
+        out.putInt(1209600); // expire
+        out.putInt(minimum);
+        out.putShort(lengthOffset, (short) (out.position() - lengthOffset - 2));
+        return this;
+    }
+
+    /**
+     * Replaces the response code of the header, e.g., with NAME_ERROR once it is known that the
+     * last name of a CNAME chain does not exist.
+     */
+    public DNSResponseWriter setResponseCode(int responseCode) {
+        out.putShort(2, (short) ((out.getShort(2) & ~0xF) | responseCode));
+        return this;
+    }
+
+    /**
+     * Adds an OPT pseudo-record (EDNS) to the additional section.
+     */
+    public DNSResponseWriter opt(int udpPayloadSize) {
+        counts[ADDITIONAL]++;
+        out.put((byte) 0); // root name
+        out.putShort((short) RecordType.OPT.getCode());
+        out.putShort((short) udpPayloadSize);
+        out.putInt(0);
+        out.putShort((short) 0);
+        return this;
+    }
+
+    /**
+     * Returns the message, between position 0 and the limit of a new buffer.
+     */
+    public ByteBuffer toBuffer() {
+        out.putShort(6, (short) counts[ANSWER]);
+        out.putShort(8, (short) counts[AUTHORITY]);
+        out.putShort(10, (short) counts[ADDITIONAL]);
+        ByteBuffer message = ByteBuffer.allocate(out.position());
+        message.put(out.array(), 0, out.position());
+        message.flip();
+        return message;
+    }
+
+    private void start(int section, String name, int type, int ttl) {
+        counts[section]++;
+        writeName(name);
+        out.putShort((short) type);
+        out.putShort((short) 1); // IN
+        out.putInt(ttl);
+    }
+
+    private void writeName(String name) {
+        String suffix = name;
+        while (!suffix.isEmpty()) {
+            Integer offset = nameOffsets.get(suffix);
+            if (offset != null) {
+                out.putShort((short) (0xC000 | offset));
+                return;
+            }
+            if (out.position() < 0x4000)
+                nameOffsets.put(suffix, out.position());
+            int dot = suffix.indexOf('.');
+            String label = dot < 0 ? suffix : suffix.substring(0, dot);
+            out.put((byte) label.length());
+            for (int i = 0; i < label.length(); i++)
+                out.put((byte) label.charAt(i));
+            suffix = dot < 0 ? "" : suffix.substring(dot + 1);
+        }
+        out.put((byte) 0);
+    }
+}
@@ -0,0 +1,278 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * TCP transport shared by all resolutions, as described in RFC 7766. It is used for responses
+ * too large for a UDP datagram, and may be used for every query, e.g., for bulk work against
+ * the same servers.
+ *
+ * The transport keeps one connection per server and reuses it for the following queries. Queries
+ * are pipelined: they are written as soon as they are sent, without waiting for the responses
+ * to earlier queries, and each response is matched to its query by query ID and question, in
+ * whatever order the server answers. Connections are closed once they have been idle for
+ * IDLE_TIMEOUT; queries waiting on a connection closed by the server fail, so the caller can try
+ * again. A single selector thread connects, writes and reads for all connections.
+ *
+ * Each response is received into a buffer of its own size. Callers may give it to release() of
+ * the UDP transport like any other response, which leaves it to the garbage collector.
+ */
+public class DNSTcpTransport implements Closeable {
+
+    private static final long IDLE_TIMEOUT = 10 * 1000; // in milliseconds
+    private static final int LENGTH_SIZE = 2; // messages are prefixed by their length
+
+    private final Selector selector;
+    private final Map<InetSocketAddress, Connection> connections = new ConcurrentHashMap<>();
+    private final Queue<Connection> updates = new ConcurrentLinkedQueue<>(); // interest changes for the selector thread
+    private final Thread selectorThread;
+
+    public DNSTcpTransport() throws IOException {
+        selector = Selector.open();
+        selectorThread = new Thread(this::selectLoop, "dns-tcp-transport");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    /**
+     * Sends a query to a server over the connection to that server, opening a connection first
+     * if there is none. The returned future completes with the buffer holding the matching
+     * response (position 0, limit at the end of the message), or completes exceptionally if the
+     * connection fails first. Cancelling the future stops waiting for the response.
+     *
+     * @param server Address and port of the server the query is sent to.
+     * @param query  Encoded query, between position 0 and the limit of the buffer. Its first two
+     *               bytes are the query ID, which must not be used by any other query in flight.
+     *               The query is copied, so the buffer may be reused as soon as this returns.
+     * @return A future completed when a matching response is received.
+     * @throws IOException if no connection could be opened.
+     */
+    public CompletableFuture<ByteBuffer> send(InetSocketAddress server, ByteBuffer query) throws IOException {
+        ByteBuffer framed = ByteBuffer.allocate(LENGTH_SIZE + query.remaining());
+        framed.putShort((short) query.remaining());
+        framed.put(query.duplicate());
+        framed.flip();
+        ByteBuffer copy = framed.duplicate();
+        copy.position(LENGTH_SIZE);
+
+        int queryId = query.getShort(0) & 0xFFFF;
+        DNSTransport.PendingQuery waiter = new DNSTransport.PendingQuery(server, copy.slice());
+        while (true) {
+            Connection connection;
+            try {
+                connection = connections.computeIfAbsent(server, address -> {
+                    try {
+                        return new Connection(address);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            if (connection.enqueue(queryId, waiter, framed))
+                break;
+            connections.remove(server, connection); // closed meanwhile, open a new one
+        }
+        return waiter.future;
+    }
+
+    @Override
+    public void close() throws IOException {
+        selector.close();
+        for (Connection connection : connections.values())
+            connection.close(new EOFException("Transport closed"));
+    }
+
+    private void selectLoop() {
+        try {
+            while (selector.isOpen()) {
+                selector.select(IDLE_TIMEOUT);
+                Connection connection;
+                while ((connection = updates.poll()) != null)
+                    connection.updateInterest();
+                for (SelectionKey key : selector.selectedKeys())
+                    ((Connection) key.attachment()).process(key);
+                selector.selectedKeys().clear();
+                closeIdleConnections();
+            }
+        } catch (ClosedSelectorException ex) {
+            // transport closed
+        } catch (IOException ex) {
+            System.err.println("DNS TCP transport stopped: " + ex.getMessage());
+        }
+    }
+
+    private void closeIdleConnections() {
+        long now = System.currentTimeMillis();
+        for (Connection connection : connections.values())
+            if (connection.isIdleSince(now - IDLE_TIMEOUT))
+                connection.close(null);
+    }
+
+    /**
+     * A connection to a server, with the queries written to it or waiting to be written, and
+     * the response being read.
+     */
+    private class Connection {
+        private final InetSocketAddress server;
+        private final SocketChannel channel;
+        private final Map<Integer, DNSTransport.PendingQuery> pending = new ConcurrentHashMap<>();
+        private final Queue<ByteBuffer> outbound = new ArrayDeque<>(); // guarded by this
+        private final ByteBuffer length = ByteBuffer.allocate(LENGTH_SIZE);
+        private ByteBuffer message; // response being read, after its length
+        private SelectionKey key;
+        private boolean closed; // guarded by this
+        private volatile long lastActive = System.currentTimeMillis();
+
+        private Connection(InetSocketAddress server) throws IOException {
+            this.server = server;
+            this.channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            try {
+                channel.connect(server);
+            } catch (IOException ex) {
+                channel.close();
+                throw ex;
+            }
+        }
+
+        /**
+         * Queues a query to be written, and registers its waiter.
+         *
+         * @return false if the connection was closed, in which case nothing was queued.
+         */
+        private boolean enqueue(int queryId, DNSTransport.PendingQuery waiter, ByteBuffer framed) {
+            synchronized (this) {
+                if (closed)
+                    return false;
+                pending.put(queryId, waiter);
+                outbound.add(framed);
+                lastActive = System.currentTimeMillis();
+            }
+            waiter.future.whenComplete((response, ex) -> pending.remove(queryId, waiter));
+            updates.add(this);
+            selector.wakeup();
+            return true;
+        }
+
+        private boolean isIdleSince(long time) {
+            return pending.isEmpty() && lastActive < time;
+        }
+
+        /**
+         * Registers the channel with the selector, or updates the operations it waits for.
+         * Called by the selector thread.
+         */
+        private void updateInterest() throws IOException {
+            int ops;
+            synchronized (this) {
+                if (closed)
+                    return;
+                ops = !channel.isConnected() ? SelectionKey.OP_CONNECT
+                        : outbound.isEmpty() ? SelectionKey.OP_READ
+                        : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+            }
+            if (key == null)
+                key = channel.register(selector, ops, this);
+            else
+                key.interestOps(ops);
+        }
+
+        /**
+         * Performs the operations the channel is ready for. Called by the selector thread.
+         */
+        private void process(SelectionKey key) {
+            try {
+                if (key.isConnectable() && channel.finishConnect())
+                    updateInterest();
+                if (key.isValid() && key.isWritable())
+                    write();
+                if (key.isValid() && key.isReadable())
+                    read();
+            } catch (IOException ex) {
+                close(ex);
+            }
+        }
+
+        private void write() throws IOException {
+            synchronized (this) {
+                while (!outbound.isEmpty()) {
+                    ByteBuffer framed = outbound.peek();
+                    channel.write(framed);
+                    if (framed.hasRemaining())
+                        return; // socket buffer full, wait until writable again
+                    outbound.poll();
+                }
+            }
+            updateInterest();
+        }
+
+        private void read() throws IOException {
+            while (true) {
+                ByteBuffer target = message == null ? length : message;
+                int read = channel.read(target);
+                if (read < 0)
+                    throw new EOFException("Connection closed by " + server);
+                if (target.hasRemaining())
+                    return;
+
+                lastActive = System.currentTimeMillis();
+                if (message == null) {
+                    message = ByteBuffer.allocate(length.getShort(0) & 0xFFFF);
+                    length.clear();
+                } else {
+                    message.flip();
+                    dispatch(message);
+                    message = null;
+                }
+            }
+        }
+
+        private void dispatch(ByteBuffer response) {
+            if (response.remaining() < 12)
+                return;
+            DNSTransport.PendingQuery waiter = pending.get(response.getShort(0) & 0xFFFF);
+            if (waiter != null && waiter.matches(server, response))
+                waiter.future.complete(response);
+        }
+
+        /**
+         * Closes the connection. Queries still waiting for a response fail with the given cause.
+         *
+         * @param cause Reason the connection is closed, or null if it is closed while idle.
+         */
+        private void close(IOException cause) {
+            synchronized (this) {
+                if (closed || (cause == null && !pending.isEmpty()))
+                    return; // a query was sent since the connection was found idle
+                closed = true;
+                outbound.clear();
+            }
+            connections.remove(server, this);
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // closing anyway
+            }
+            IOException failure = cause != null ? cause : new EOFException("Connection closed");
+            for (DNSTransport.PendingQuery waiter : pending.values())
+                waiter.future.completeExceptionally(failure);
+        }
+    }
+}
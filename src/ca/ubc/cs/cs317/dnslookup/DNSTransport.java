@@ -0,0 +1,206 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * UDP transport shared by all resolutions. Queries are sent through a single non-blocking
+ * datagram channel, and a receiver thread waits on a selector for responses. Each response is
+ * matched to the query waiting for it by query ID, source address and question section, so any
+ * number of queries may be in flight at the same time.
+ *
+ * Responses are received into buffers taken from a pool, sized for the largest response the
+ * queries allow (see setReceiveBufferSize()). The buffer completing a query belongs to the
+ * caller, which should give it back with release() once the response has been decoded.
+ */
+public class DNSTransport implements Closeable {
+
+    public static final int DEFAULT_RECEIVE_BUFFER_SIZE = DNSMessageEncoder.DEFAULT_EDNS_BUFFER_SIZE;
+    private static final int MAX_POOLED_BUFFERS = 1024;
+    private static final int HEADER_SIZE = 12;
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private volatile BufferPool bufferPool;
+    private final Map<Integer, PendingQuery> pending = new ConcurrentHashMap<>();
+    private final Thread receiver;
+
+    public DNSTransport() throws IOException {
+        this(DEFAULT_RECEIVE_BUFFER_SIZE);
+    }
+
+    /**
+     * @param receiveBufferSize Size of the largest response that can be received, which should
+     *                          match the UDP payload size advertised in queries.
+     */
+    public DNSTransport(int receiveBufferSize) throws IOException {
+        bufferPool = new BufferPool(receiveBufferSize, MAX_POOLED_BUFFERS);
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.bind(null);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+
+        receiver = new Thread(this::receiveLoop, "dns-transport");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * Sends a query to a server. The returned future completes with the buffer holding the
+     * matching response (position 0, limit at the end of the datagram). Cancelling the future
+     * stops waiting for the response.
+     *
+     * @param server Address and port of the server the query is sent to.
+     * @param query  Encoded query, between position 0 and the limit of the buffer. Its first two
+     *               bytes are the query ID, which must not be used by any other query in flight.
+     *               Its position is reset to 0 once the datagram has been sent, and the buffer
+     *               must not be modified until the future completes.
+     * @return A future completed when a matching response is received.
+     * @throws IOException if the datagram could not be sent.
+     */
+    public CompletableFuture<ByteBuffer> send(InetSocketAddress server, ByteBuffer query) throws IOException {
+        int queryId = query.getShort(0) & 0xFFFF;
+        PendingQuery waiter = new PendingQuery(server, query);
+
+        pending.put(queryId, waiter);
+        waiter.future.whenComplete((response, ex) -> pending.remove(queryId, waiter));
+        try {
+            int sent = channel.send(query, server);
+            query.rewind();
+            if (sent == 0)
+                throw new IOException("No buffer space available to send query");
+        } catch (IOException ex) {
+            waiter.future.cancel(false);
+            throw ex;
+        }
+        return waiter.future;
+    }
+
+    /**
+     * Changes the size of the buffers responses are received into, e.g., after changing the UDP
+     * payload size advertised in queries. Datagrams larger than this size are truncated.
+     *
+     * @param receiveBufferSize Size of the largest response that can be received.
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize != bufferPool.getBufferSize())
+            bufferPool = new BufferPool(receiveBufferSize, MAX_POOLED_BUFFERS); // older buffers are dropped on release
+    }
+
+    /**
+     * Gives a response buffer back to the pool once it is no longer needed.
+     *
+     * @param buffer Buffer obtained from a future returned by send().
+     */
+    public void release(ByteBuffer buffer) {
+        bufferPool.release(buffer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        selector.close();
+        channel.close();
+        for (PendingQuery waiter : pending.values())
+            waiter.future.cancel(false);
+    }
+
+    private void receiveLoop() {
+        try {
+            while (selector.isOpen()) {
+                selector.select();
+                selector.selectedKeys().clear();
+                receiveAvailable();
+            }
+        } catch (ClosedSelectorException | ClosedChannelException ex) {
+            // transport closed, nothing else to receive
+        } catch (IOException ex) {
+            System.err.println("DNS transport stopped: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Reads every datagram currently queued on the channel and hands each one to its waiter.
+     * Datagrams that do not match any query in flight are dropped.
+     */
+    private void receiveAvailable() throws IOException {
+        while (true) {
+            BufferPool bufferPool = this.bufferPool;
+            ByteBuffer buffer = bufferPool.acquire();
+            SocketAddress source = channel.receive(buffer);
+            if (source == null) {
+                bufferPool.release(buffer);
+                return;
+            }
+            buffer.flip();
+
+            PendingQuery waiter = null;
+            if (buffer.remaining() >= HEADER_SIZE)
+                waiter = pending.get(buffer.getShort(0) & 0xFFFF);
+            if (waiter == null || !waiter.matches(source, buffer) || !waiter.future.complete(buffer))
+                bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * A query waiting for its response. Also used by the TCP transport.
+     */
+    static class PendingQuery {
+        private final InetSocketAddress server;
+        private final ByteBuffer query;
+        private final int questionEnd;
+        final CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+
+        PendingQuery(InetSocketAddress server, ByteBuffer query) {
+            this.server = server;
+            this.query = query;
+            this.questionEnd = findQuestionEnd(query);
+        }
+
+        /**
+         * Returns the offset following the question section of a query, whose names are not
+         * compressed. Records after the questions (e.g., an OPT record) are not repeated in
+         * responses.
+         */
+        private static int findQuestionEnd(ByteBuffer query) {
+            int offset = HEADER_SIZE;
+            for (int i = query.getShort(4) & 0xFFFF; i > 0; i--) {
+                while (query.get(offset) != 0)
+                    offset += (query.get(offset) & 0xFF) + 1;
+                offset += 5; // final empty label, type and class
+            }
+            return offset;
+        }
+
+        /**
+         * Returns true if a response comes from the server this query was sent to, and repeats
+         * the question of the query. Host names are compared ignoring case.
+         */
+        boolean matches(SocketAddress source, ByteBuffer response) {
+            if (!server.equals(source))
+                return false;
+            // question count must match, and the question section must follow the header
+            if (response.getShort(4) != query.getShort(4))
+                return false;
+            if (response.limit() < questionEnd)
+                return false;
+            for (int i = HEADER_SIZE; i < questionEnd; i++) {
+                int sent = query.get(i), received = response.get(i);
+                if (sent != received && Character.toLowerCase(sent) != Character.toLowerCase(received))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
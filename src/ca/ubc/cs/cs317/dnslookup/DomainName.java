@@ -0,0 +1,231 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/** A fully-qualified domain name in canonical form. Names are compared ignoring case, so the
+ * canonical form is the name in lower case, without a trailing dot, along with its wire format
+ * (a sequence of length-prefixed labels ending with an empty label).
+ *
+ * Domain names are interned: of() returns the same instance for every spelling of a name, as
+ * long as that instance is in use. Equal names are therefore usually the same object, and
+ * comparing them is a reference comparison. Names no longer used anywhere are removed from the
+ * pool by the garbage collector.
+ */
+public class DomainName implements Comparable<DomainName>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int MAX_NAME_LENGTH = 255;
+    public static final int MAX_LABEL_LENGTH = 63;
+
+    private static final ConcurrentMap<String, NameReference> pool = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<DomainName> collected = new ReferenceQueue<>();
+
+    private final String name;
+    private final byte[] wireFormat;
+    private final int hash;
+    private transient DomainName parent; // computed when first needed
+
+    private DomainName(String name, byte[] wireFormat) {
+        this.name = name;
+        this.wireFormat = wireFormat;
+        this.hash = name.hashCode();
+    }
+
+    /** Returns the canonical instance of a domain name. A trailing dot is ignored, and an empty
+     * name (or a single dot) is the root domain.
+     *
+     * @param hostName Name in any case, with labels separated by dots.
+     * @return The canonical instance for this name.
+     * @throws IllegalArgumentException if the name has an empty label, a label longer than 63
+     * characters, or is longer than 255 bytes in wire format.
+     */
+    public static DomainName of(String hostName) {
+        String name = canonicalize(hostName);
+        expungeCollected();
+
+        NameReference reference = pool.get(name);
+        DomainName domainName = reference == null ? null : reference.get();
+        if (domainName != null)
+            return domainName;
+
+        DomainName created = new DomainName(name, toWireFormat(name));
+        while (true) {
+            NameReference existing = pool.putIfAbsent(name, new NameReference(created));
+            if (existing == null)
+                return created;
+            domainName = existing.get();
+            if (domainName != null)
+                return domainName;
+            pool.remove(name, existing); // collected but not expunged yet
+        }
+    }
+
+    /** Reads a name in wire format (uncompressed), as written by writeTo(), and returns its
+     * canonical instance.
+     *
+     * @param in Buffer the name is read from, at its current position.
+     * @return The canonical instance for this name.
+     * @throws IllegalArgumentException if the name is not a valid domain name.
+     * @throws java.nio.BufferUnderflowException if the buffer ends before the name.
+     */
+    public static DomainName readFrom(ByteBuffer in) {
+        StringBuilder name = new StringBuilder(64);
+        for (int length = in.get() & 0xFF; length != 0; length = in.get() & 0xFF) {
+            if (length > MAX_LABEL_LENGTH || name.length() + length + 2 > MAX_NAME_LENGTH)
+                throw new IllegalArgumentException("Invalid name in wire format");
+            if (name.length() > 0)
+                name.append('.');
+            for (int i = 0; i < length; i++)
+                name.append((char) (in.get() & 0xFF));
+        }
+        return of(name.toString());
+    }
+
+    /** Returns the name in lower case, without a trailing dot. The root domain is the empty
+     * string.
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /** Returns true if this is the root domain, i.e., the empty name.
+     */
+    public boolean isRoot() {
+        return name.isEmpty();
+    }
+
+    /** Returns the name obtained by removing the first label of this name, e.g., example.com
+     * for www.example.com, or the root domain for com.
+     *
+     * @return The parent of this name, or null if this is the root domain.
+     */
+    public DomainName getParent() {
+        if (parent == null && !isRoot()) {
+            int dot = name.indexOf('.');
+            parent = of(dot < 0 ? "" : name.substring(dot + 1));
+        }
+        return parent;
+    }
+
+    /** Number of bytes of this name in wire format, including the final empty label.
+     */
+    public int getWireLength() {
+        return wireFormat.length;
+    }
+
+    /** Writes this name in wire format (uncompressed) to a buffer.
+     *
+     * @param out Buffer the name is written to, at its current position.
+     */
+    public void writeTo(ByteBuffer out) {
+        out.put(wireFormat);
+    }
+
+    /** Returns true if a buffer holds this name in wire format (uncompressed) at a given index.
+     * The position of the buffer is not changed.
+     *
+     * @param in    Buffer the name is compared with.
+     * @param index Index of the first byte of the name in the buffer.
+     */
+    public boolean isWrittenAt(ByteBuffer in, int index) {
+        if (index + wireFormat.length > in.limit())
+            return false;
+        for (int i = 0; i < wireFormat.length; i++)
+            if (in.get(index + i) != wireFormat[i])
+                return false;
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        DomainName that = (DomainName) o;
+        return hash == that.hash && Arrays.equals(wireFormat, that.wireFormat);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public int compareTo(DomainName o) {
+        return this == o ? 0 : name.compareTo(o.name);
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+        return of(name);
+    }
+
+    /** Lower-cases a name and removes its trailing dot, without copying it if it is already in
+     * canonical form.
+     */
+    private static String canonicalize(String hostName) {
+        int length = hostName.length();
+        if (length > 0 && hostName.charAt(length - 1) == '.')
+            length--;
+        for (int i = 0; i < length; i++) {
+            char c = hostName.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                char[] chars = hostName.toCharArray();
+                for (int j = i; j < length; j++)
+                    if (chars[j] >= 'A' && chars[j] <= 'Z')
+                        chars[j] += 'a' - 'A';
+                return new String(chars, 0, length);
+            }
+        }
+        return length == hostName.length() ? hostName : hostName.substring(0, length);
+    }
+
+    private static byte[] toWireFormat(String name) {
+        if (name.length() + 2 > MAX_NAME_LENGTH)
+            throw new IllegalArgumentException("Host name too long: " + name);
+        if (name.isEmpty())
+            return new byte[]{0};
+
+        byte[] wire = new byte[name.length() + 2];
+        int labelStart = 0;
+        while (labelStart <= name.length()) {
+            int labelEnd = name.indexOf('.', labelStart);
+            if (labelEnd < 0)
+                labelEnd = name.length();
+            int labelLength = labelEnd - labelStart;
+            if (labelLength == 0 || labelLength > MAX_LABEL_LENGTH)
+                throw new IllegalArgumentException("Invalid label in host name " + name);
+
+            wire[labelStart] = (byte) labelLength;
+            for (int i = labelStart; i < labelEnd; i++)
+                wire[i + 1] = (byte) name.charAt(i);
+            labelStart = labelEnd + 1;
+        }
+        return wire; // the last byte is already 0
+    }
+
+    private static void expungeCollected() {
+        NameReference reference;
+        while ((reference = (NameReference) collected.poll()) != null)
+            pool.remove(reference.name, reference);
+    }
+
+    /** Entry of the pool, which does not prevent a name from being collected.
+     */
+    private static class NameReference extends WeakReference<DomainName> {
+        private final String name;
+
+        private NameReference(DomainName domainName) {
+            super(domainName, collected);
+            this.name = domainName.name;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+/**
+ * An approximate count of how often each element was used recently, based on a count-min
+ * sketch with four 4-bit counters per element. Once the number of recorded uses reaches ten
+ * times the expected number of elements, every counter is halved, so elements that stop being
+ * used gradually lose their frequency. This class is not thread-safe.
+ */
+public class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int additions;
+
+    /**
+     * Creates a sketch sized for a specific number of elements.
+     *
+     * @param maximumSize Expected maximum number of distinct elements being tracked.
+     */
+    public FrequencySketch(int maximumSize) {
+        ensureCapacity(maximumSize);
+    }
+
+    /**
+     * Resizes the sketch for a new number of elements. All frequencies are lost if the size
+     * of the table changes.
+     *
+     * @param maximumSize Expected maximum number of distinct elements being tracked.
+     */
+    public void ensureCapacity(int maximumSize) {
+        int tableSize = Integer.highestOneBit(Math.max(maximumSize - 1, 1)) << 1;
+        tableSize = Math.min(Math.max(tableSize, 16), 1 << 30);
+        if (table != null && table.length == tableSize)
+            return;
+        table = new long[tableSize];
+        tableMask = tableSize - 1;
+        sampleSize = (int) Math.min(10L * maximumSize, Integer.MAX_VALUE);
+        additions = 0;
+    }
+
+    /**
+     * Returns the estimated number of recent uses of an element, up to 15.
+     */
+    public int frequency(Object element) {
+        int hash = spread(element.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xF);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Records one use of an element.
+     */
+    public void increment(Object element) {
+        int hash = spread(element.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++)
+            added |= incrementAt(indexOf(hash, i), start + i);
+
+        if (added && ++additions >= sampleSize)
+            reset();
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xFL << offset;
+        if ((table[index] & mask) == mask)
+            return false;
+        table[index] += 1L << offset;
+        return true;
+    }
+
+    /**
+     * Halves every counter, so older uses weigh less than recent ones.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++)
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        additions /= 2;
+    }
+
+    private int indexOf(int hash, int depth) {
+        long value = (hash + SEEDS[depth]) * SEEDS[depth];
+        value += value >>> 32;
+        return ((int) value) & tableMask;
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
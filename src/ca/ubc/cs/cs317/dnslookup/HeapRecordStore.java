@@ -0,0 +1,45 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Record store keeping the record sets on the heap, in a hashed concurrent map. Reads never
+ * lock, and return the stored sets themselves. This is the default store of the cache.
+ */
+public class HeapRecordStore implements RecordStore {
+
+    private final Map<DNSNode, Set<ResourceRecord>> records = new ConcurrentHashMap<>();
+
+    @Override
+    public Set<ResourceRecord> get(DNSNode node) {
+        return records.get(node);
+    }
+
+    @Override
+    public boolean containsKey(DNSNode node) {
+        return records.containsKey(node);
+    }
+
+    @Override
+    public void put(DNSNode node, Set<ResourceRecord> records) {
+        this.records.put(node, records);
+    }
+
+    @Override
+    public boolean remove(DNSNode node) {
+        return records.remove(node) != null;
+    }
+
+    @Override
+    public void forEach(BiConsumer<DNSNode, Set<ResourceRecord>> consumer) {
+        records.forEach(consumer);
+    }
+
+    @Override
+    public int size() {
+        return records.size();
+    }
+}
@@ -0,0 +1,247 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Remembers how fast each name server answered, and uses it to choose which name server of a
+ * zone to query first, in the style of the BIND and Unbound infrastructure caches.
+ *
+ * Each server has a smoothed round-trip time (SRTT), an exponentially weighted moving average of
+ * its measured round-trip times. Queries that get no response count as a round trip at least as
+ * long as the time waited, so unresponsive servers quickly fall behind. The variation of the
+ * round-trip times (RTTVAR) is tracked as well, and gives the retransmission timeout (RTO) of the
+ * server as described in RFC 6298, doubled after every timeout until the server answers.
+ * Measurements decay with age: the SRTT of a server that has not been measured for a while is
+ * halved every DECAY_HALF_LIFE, so a server that was slow once is eventually tried again. Servers
+ * never measured get a small random SRTT, so each of them is tried early. Finally, a small
+ * fraction of the queries explore a server other than the fastest one, to notice servers that
+ * became faster.
+ *
+ * The cache also remembers the servers that rejected a query because of its OPT record, so
+ * later queries to them are sent without EDNS (RFC 6891, section 7).
+ *
+ * This class is thread-safe.
+ */
+public class InfrastructureCache {
+
+    private static final double SRTT_WEIGHT = 0.125; // weight of a new sample, as in RFC 6298
+    private static final double RTTVAR_WEIGHT = 0.25;
+    private static final long INITIAL_RTO = 1000 * 1000; // in microseconds, as in RFC 6298
+    private static final long MIN_RTO = 50 * 1000;
+    private static final long MAX_RTO = 5000 * 1000;
+    private static final long CLOCK_GRANULARITY = 1000;
+    private static final int MAX_BACKOFF = 6;
+    private static final long DECAY_HALF_LIFE = 10 * 60 * 1000; // in milliseconds
+    private static final long MAX_UNKNOWN_SRTT = 1000; // in microseconds
+    private static final double EXPLORATION_RATE = 0.05;
+    private static final int MAX_SERVERS = 65536;
+
+    private final Map<InetAddress, ServerStats> servers = new ConcurrentHashMap<>();
+
+    /**
+     * Records the round-trip time of a query answered by a server.
+     *
+     * @param server Address of the server.
+     * @param rtt    Time between sending the query and receiving the response, in microseconds.
+     */
+    public void recordRtt(InetAddress server, long rtt) {
+        getStats(server).update(rtt, false);
+    }
+
+    /**
+     * Records that a query sent to a server was abandoned without response, e.g., because
+     * another server answered first.
+     *
+     * @param server  Address of the server.
+     * @param elapsed Time waited for the response, in microseconds, which is a lower bound on
+     *                the round-trip time of the server.
+     */
+    public void recordAbandoned(InetAddress server, long elapsed) {
+        getStats(server).update(elapsed, true);
+    }
+
+    /**
+     * Records that the retransmission timeout of a query sent to a server expired. Besides
+     * counting as an abandoned query, this doubles the RTO of the server (exponential backoff)
+     * until it answers a query again.
+     *
+     * @param server  Address of the server.
+     * @param elapsed Time waited for the response, in microseconds.
+     */
+    public void recordTimeout(InetAddress server, long elapsed) {
+        ServerStats stats = getStats(server);
+        stats.update(elapsed, true);
+        stats.backOff();
+    }
+
+    /**
+     * Records that a server answered a query without answering the question (SERVFAIL, REFUSED
+     * or NOTIMP). The server is penalized as if the query had timed out after the longest RTO,
+     * so other servers of the zone are preferred until its measurements decay.
+     *
+     * @param server Address of the server.
+     */
+    public void recordFailure(InetAddress server) {
+        recordTimeout(server, MAX_RTO);
+    }
+
+    /**
+     * Records that a server does not support EDNS: it answered a query with an OPT record with
+     * FORMERR or NOTIMP, and without an OPT record of its own.
+     *
+     * @param server Address of the server.
+     */
+    public void recordNoEdns(InetAddress server) {
+        getStats(server).ednsUnsupported = true;
+    }
+
+    /**
+     * Returns false if the server is known not to support EDNS, true otherwise.
+     *
+     * @param server Address of the server.
+     */
+    public boolean supportsEdns(InetAddress server) {
+        ServerStats stats = servers.get(server);
+        return stats == null || !stats.ednsUnsupported;
+    }
+
+    /**
+     * Returns how long to wait for a response from a server before querying again: SRTT plus
+     * four times RTTVAR, with exponential backoff after timeouts (RFC 6298). Servers that were
+     * never measured start with a timeout of one second.
+     *
+     * @param server Address of the server.
+     * @return The retransmission timeout, in microseconds.
+     */
+    public long getRetransmissionTimeout(InetAddress server) {
+        ServerStats stats = servers.get(server);
+        return stats == null ? INITIAL_RTO : stats.getRetransmissionTimeout();
+    }
+
+    /**
+     * Returns the current SRTT of a server, with decay applied.
+     *
+     * @param server Address of the server.
+     * @return The SRTT in microseconds, or -1 if the server was never measured.
+     */
+    public long getSmoothedRtt(InetAddress server) {
+        ServerStats stats = servers.get(server);
+        return stats == null ? -1 : (long) stats.getSmoothedRtt(System.currentTimeMillis());
+    }
+
+    /**
+     * Orders the name servers of a zone by preference: servers with the lowest SRTT first. With
+     * a small probability, a random server other than the fastest one is moved first instead.
+     *
+     * @param candidates Addresses of the name servers of a zone.
+     * @return A new list with the same servers, in the order they should be queried.
+     */
+    public List<InetAddress> order(List<InetAddress> candidates) {
+        if (candidates.size() < 2)
+            return candidates;
+
+        long now = System.currentTimeMillis();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<RankedServer> ranked = new ArrayList<>(candidates.size());
+        for (InetAddress server : candidates) {
+            ServerStats stats = servers.get(server);
+            double srtt = stats != null ? stats.getSmoothedRtt(now) : random.nextLong(MAX_UNKNOWN_SRTT);
+            ranked.add(new RankedServer(server, srtt));
+        }
+        Collections.sort(ranked);
+        if (random.nextDouble() < EXPLORATION_RATE)
+            Collections.swap(ranked, 0, 1 + random.nextInt(ranked.size() - 1));
+
+        List<InetAddress> ordered = new ArrayList<>(ranked.size());
+        for (RankedServer server : ranked)
+            ordered.add(server.address);
+        return ordered;
+    }
+
+    private ServerStats getStats(InetAddress server) {
+        ServerStats stats = servers.get(server);
+        if (stats == null) {
+            if (servers.size() >= MAX_SERVERS)
+                servers.clear(); // measurements are only hints, start over
+            stats = servers.computeIfAbsent(server, address -> new ServerStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Round-trip statistics of a single server.
+     */
+    private static class ServerStats {
+        private double smoothedRtt = -1; // in microseconds, -1 until the first sample
+        private double rttVariation;
+        private double measuredRtt = -1; // SRTT from measured round trips only, without decay
+        private int backoff;
+        private long updatedAt;
+        private volatile boolean ednsUnsupported;
+
+        private synchronized void update(long sample, boolean lowerBound) {
+            long now = System.currentTimeMillis();
+            double current = getSmoothedRtt(now);
+            if (current < 0)
+                smoothedRtt = sample;
+            else if (lowerBound)
+                smoothedRtt = (1 - SRTT_WEIGHT) * current + SRTT_WEIGHT * Math.max(sample, current);
+            else
+                smoothedRtt = (1 - SRTT_WEIGHT) * current + SRTT_WEIGHT * sample;
+            updatedAt = now;
+
+            if (lowerBound)
+                return;
+            if (measuredRtt < 0) {
+                measuredRtt = sample;
+                rttVariation = sample / 2.0;
+            } else {
+                rttVariation = (1 - RTTVAR_WEIGHT) * rttVariation + RTTVAR_WEIGHT * Math.abs(measuredRtt - sample);
+                measuredRtt = (1 - SRTT_WEIGHT) * measuredRtt + SRTT_WEIGHT * sample;
+            }
+            backoff = 0;
+        }
+
+        private synchronized void backOff() {
+            backoff = Math.min(backoff + 1, MAX_BACKOFF);
+        }
+
+        private synchronized long getRetransmissionTimeout() {
+            long rto = measuredRtt < 0 ? INITIAL_RTO
+                    : (long) (measuredRtt + Math.max(CLOCK_GRANULARITY, 4 * rttVariation));
+            rto = Math.max(rto, MIN_RTO) << backoff;
+            return Math.min(rto, MAX_RTO);
+        }
+
+        private synchronized double getSmoothedRtt(long now) {
+            if (smoothedRtt < 0)
+                return -1;
+            long age = Math.max(now - updatedAt, 0);
+            return smoothedRtt * Math.pow(0.5, (double) age / DECAY_HALF_LIFE);
+        }
+    }
+
+    /**
+     * A server along with the SRTT used to rank it.
+     */
+    private static class RankedServer implements Comparable<RankedServer> {
+        private final InetAddress address;
+        private final double smoothedRtt;
+
+        private RankedServer(InetAddress address, double smoothedRtt) {
+            this.address = address;
+            this.smoothedRtt = smoothedRtt;
+        }
+
+        @Override
+        public int compareTo(RankedServer o) {
+            return Double.compare(smoothedRtt, o.smoothedRtt);
+        }
+    }
+}
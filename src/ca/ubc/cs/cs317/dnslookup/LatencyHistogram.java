@@ -0,0 +1,105 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records latencies and reports their percentiles, in the style of an HDR histogram. Values are
+ * counted in log-linear buckets: every power of two is split into 32 buckets of equal width, so
+ * a percentile is reported with a relative error of at most about 3%, whatever the magnitude of
+ * the values, while the histogram uses a fixed amount of memory.
+ *
+ * Any number of threads may record values at the same time. Percentiles computed while values
+ * are being recorded reflect some, but not necessarily all, of the concurrent recordings.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value Value to record, e.g., a latency in microseconds.
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts.incrementAndGet(indexOf(value));
+        totalCount.incrementAndGet();
+
+        long max = maxValue.get();
+        while (value > max && !maxValue.compareAndSet(max, value))
+            max = maxValue.get();
+    }
+
+    /**
+     * Returns the number of values recorded.
+     */
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * Returns the largest value recorded, or 0 if no value was recorded.
+     */
+    public long getMaxValue() {
+        return maxValue.get();
+    }
+
+    /**
+     * Returns a value such that a given percentage of the recorded values are lower than or
+     * equal to it (within the precision of the histogram).
+     *
+     * @param percentile Percentage of values, between 0 and 100.
+     * @return The value at this percentile, or 0 if no value was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = totalCount.get();
+        if (total == 0)
+            return 0;
+
+        long target = Math.max((long) Math.ceil(Math.min(percentile, 100) / 100 * total), 1);
+        long seen = 0;
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            seen += counts.get(index);
+            if (seen >= target)
+                return Math.min(highestValueAt(index), maxValue.get());
+        }
+        return maxValue.get();
+    }
+
+    /**
+     * Removes every recorded value.
+     */
+    public void reset() {
+        for (int index = 0; index < BUCKET_COUNT; index++)
+            counts.set(index, 0);
+        totalCount.set(0);
+        maxValue.set(0);
+    }
+
+    /**
+     * Values below SUB_BUCKET_COUNT have a bucket each. Above that, the values between 2^k and
+     * 2^(k+1) share SUB_BUCKET_HALF buckets, identified by the top bits of the value.
+     */
+    private static int indexOf(long value) {
+        int shift = Math.max(63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1), 0);
+        int subBucket = (int) (value >>> shift);
+        return shift * SUB_BUCKET_HALF + subBucket;
+    }
+
+    private static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+        int shift = index / SUB_BUCKET_HALF - 1;
+        long subBucket = index - (long) shift * SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,64 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+/** A negative result indicates that a DNS server answered a query authoritatively, but without
+ * any record. Either the host name does not exist at all (NXDOMAIN, a name error), or it exists
+ * but has no record of the requested type (NODATA). As described in RFC 2308, negative results
+ * are cached for the TTL given by the SOA record of the zone that answered the query.
+ */
+public class NegativeResult {
+
+    private final DNSNode node;
+    private final long expirationTime;
+    private final boolean nameError;
+
+    public NegativeResult(DNSNode node, long ttl, boolean nameError) {
+        this(node, nameError, System.currentTimeMillis() + (ttl * 1000));
+    }
+
+    private NegativeResult(DNSNode node, boolean nameError, long expirationTime) {
+        this.node = node;
+        this.expirationTime = expirationTime;
+        this.nameError = nameError;
+    }
+
+    /** Creates a negative result that expires at a given time, e.g., a result restored from a
+     * snapshot of the cache.
+     *
+     * @param expirationTime Time at which the result expires, in milliseconds since the epoch.
+     */
+    public static NegativeResult expiringAt(DNSNode node, long expirationTime, boolean nameError) {
+        return new NegativeResult(node, nameError, expirationTime);
+    }
+
+    public DNSNode getNode() {
+        return node;
+    }
+
+    /** Returns true if the host name does not exist (NXDOMAIN), or false if it exists but has no
+     * record of the requested type (NODATA).
+     */
+    public boolean isNameError() {
+        return nameError;
+    }
+
+    /** The time at which this result expires.
+     *
+     * @return The expiration time, in milliseconds since the epoch.
+     */
+    public long getExpirationTime() {
+        return expirationTime;
+    }
+
+    /** The TTL for this result, as the (ceiling of the) number of seconds until it expires.
+     *
+     * @return The number of seconds, rounded up, until this result expires.
+     */
+    public long getTTL() {
+        return (expirationTime - System.currentTimeMillis() + 999) / 1000;
+    }
+
+    @Override
+    public String toString() {
+        return node + (nameError ? " NXDOMAIN" : " NODATA");
+    }
+}
@@ -0,0 +1,388 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Record store keeping the record sets outside the Java heap, so a cache holding millions of
+ * nodes does not leave the garbage collector millions of records, sets and addresses to trace.
+ *
+ * Each node and its records are encoded as a single entry: the entry length, the record type,
+ * the host name in wire format and the number of records, followed by each record with its
+ * expiration time and its result (address, name in wire format or text). Entries are appended
+ * to direct buffers (arenas) of a fixed size. Replacing or removing an entry leaves a hole in
+ * its arena; once holes make up more than half of the bytes appended, the live entries are
+ * copied to new arenas and the old ones are dropped.
+ *
+ * Entries are found through a hash table, also kept in a direct buffer, holding a 64-bit hash
+ * of each node and the location of its entry. Collisions are resolved by linear probing, and a
+ * removal shifts the following slots back instead of leaving a tombstone.
+ *
+ * Records are decoded on every read, trading some CPU time for a heap that only holds the
+ * records in use. Reads hold the read lock, and changes hold the write lock; an entry is
+ * encoded before the write lock is taken, so readers are only held up while it is copied.
+ */
+public class OffHeapRecordStore implements RecordStore {
+
+    public static final int DEFAULT_ARENA_SIZE = 16 << 20; // 16 MiB
+    private static final int INITIAL_CAPACITY = 1 << 12; // slots, always a power of 2
+    private static final int MAXIMUM_CAPACITY = 1 << 26; // slot offsets must fit in an int
+    private static final int SLOT_SIZE = 16; // hash (0 for an empty slot), then location
+    private static final double MAX_LOAD_FACTOR = 0.5;
+    private static final double MAX_GARBAGE_RATIO = 0.5;
+
+    // entry: length (int), type (short), name, record count (short), then the records
+    private static final int TYPE_OFFSET = 4;
+    private static final int NAME_OFFSET = 6;
+
+    // record: expiration time (long), then the result, as written by ResourceRecord.writeResult()
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final int arenaSize;
+    private final List<ByteBuffer> arenas = new ArrayList<>();
+    private int arenaPosition; // first free byte of the last arena
+    private ByteBuffer table;
+    private int capacity;
+    private int size;
+    private long appendedBytes; // bytes of all entries in the arenas, including replaced ones
+    private long liveBytes; // bytes of the entries in the table
+    private ByteBuffer scratch = ByteBuffer.allocate(1024); // used by the writing thread only
+
+    public OffHeapRecordStore() {
+        this(DEFAULT_ARENA_SIZE);
+    }
+
+    /**
+     * @param arenaSize Size of each direct buffer entries are appended to, in bytes. An entry
+     *                  larger than this gets an arena of its own.
+     */
+    public OffHeapRecordStore(int arenaSize) {
+        this.arenaSize = arenaSize;
+        this.capacity = INITIAL_CAPACITY;
+        this.table = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+    }
+
+    @Override
+    public Set<ResourceRecord> get(DNSNode node) {
+        long hash = hash(node);
+        lock.readLock().lock();
+        try {
+            int slot = find(node, hash);
+            return slot < 0 ? null : decode(locationAt(slot), node);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsKey(DNSNode node) {
+        long hash = hash(node);
+        lock.readLock().lock();
+        try {
+            return find(node, hash) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(DNSNode node, Set<ResourceRecord> records) {
+        ByteBuffer entry = encode(node, records);
+        long hash = hash(node);
+        lock.writeLock().lock();
+        try {
+            int slot = find(node, hash);
+            if (slot < 0 && size + 1 > capacity * MAX_LOAD_FACTOR) {
+                if (capacity == MAXIMUM_CAPACITY)
+                    throw new IllegalStateException("Off-heap record store is full");
+                resize(capacity * 2);
+            }
+
+            long location = append(entry);
+            if (slot >= 0) {
+                liveBytes -= entryLength(locationAt(slot));
+                table.putLong(slot * SLOT_SIZE + 8, location);
+            } else {
+                insert(hash, location);
+                size++;
+            }
+            liveBytes += entry.limit();
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(DNSNode node) {
+        long hash = hash(node);
+        lock.writeLock().lock();
+        try {
+            int slot = find(node, hash);
+            if (slot < 0)
+                return false;
+            liveBytes -= entryLength(locationAt(slot));
+            removeSlot(slot);
+            size--;
+            compactIfNeeded();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Performs an action for each node and its records. Every entry is decoded before the
+     * action is performed, so the action may use the store.
+     */
+    @Override
+    public void forEach(BiConsumer<DNSNode, Set<ResourceRecord>> consumer) {
+        List<Map.Entry<DNSNode, Set<ResourceRecord>>> entries;
+        lock.readLock().lock();
+        try {
+            entries = new ArrayList<>(size);
+            for (int slot = 0; slot < capacity; slot++) {
+                if (table.getLong(slot * SLOT_SIZE) == 0)
+                    continue;
+                long location = locationAt(slot);
+                ByteBuffer in = arenas.get(arenaOf(location)).duplicate();
+                in.position(offsetOf(location) + TYPE_OFFSET);
+                RecordType type = RecordType.getByCode(in.getShort() & 0xFFFF);
+                DNSNode node = new DNSNode(DomainName.readFrom(in), type);
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(node, decode(location, node)));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (Map.Entry<DNSNode, Set<ResourceRecord>> entry : entries)
+            consumer.accept(entry.getKey(), entry.getValue());
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of bytes of direct memory used by the arenas and the hash table.
+     */
+    public long getReservedBytes() {
+        lock.readLock().lock();
+        try {
+            long reserved = table.capacity();
+            for (ByteBuffer arena : arenas)
+                reserved += arena.capacity();
+            return reserved;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the slot holding the entry of a node, or -1 if there is none. Must hold a lock.
+     */
+    private int find(DNSNode node, long hash) {
+        int mask = capacity - 1;
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+            long slotHash = table.getLong(slot * SLOT_SIZE);
+            if (slotHash == 0)
+                return -1;
+            if (slotHash == hash && isEntryOf(locationAt(slot), node))
+                return slot;
+        }
+    }
+
+    private boolean isEntryOf(long location, DNSNode node) {
+        ByteBuffer arena = arenas.get(arenaOf(location));
+        int offset = offsetOf(location);
+        return (arena.getShort(offset + TYPE_OFFSET) & 0xFFFF) == node.getType().getCode()
+                && node.getName().isWrittenAt(arena, offset + NAME_OFFSET);
+    }
+
+    /**
+     * Puts a hash and location in the first empty slot from the home slot of the hash. Must hold
+     * the write lock.
+     */
+    private void insert(long hash, long location) {
+        int mask = capacity - 1;
+        int slot = (int) hash & mask;
+        while (table.getLong(slot * SLOT_SIZE) != 0)
+            slot = (slot + 1) & mask;
+        table.putLong(slot * SLOT_SIZE, hash);
+        table.putLong(slot * SLOT_SIZE + 8, location);
+    }
+
+    /**
+     * Empties a slot, moving back the following slots of the same probe sequence so none of
+     * them becomes unreachable. Must hold the write lock.
+     */
+    private void removeSlot(int slot) {
+        int mask = capacity - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; ; next = (next + 1) & mask) {
+            long hash = table.getLong(next * SLOT_SIZE);
+            if (hash == 0)
+                break;
+            int home = (int) hash & mask;
+            boolean reachable = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+            if (!reachable) { // the hole is on the probe sequence of this slot, fill it
+                table.putLong(hole * SLOT_SIZE, hash);
+                table.putLong(hole * SLOT_SIZE + 8, locationAt(next));
+                hole = next;
+            }
+        }
+        table.putLong(hole * SLOT_SIZE, 0);
+        table.putLong(hole * SLOT_SIZE + 8, 0);
+    }
+
+    private void resize(int newCapacity) {
+        ByteBuffer oldTable = table;
+        int oldCapacity = capacity;
+        table = ByteBuffer.allocateDirect(newCapacity * SLOT_SIZE);
+        capacity = newCapacity;
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            long hash = oldTable.getLong(slot * SLOT_SIZE);
+            if (hash != 0)
+                insert(hash, oldTable.getLong(slot * SLOT_SIZE + 8));
+        }
+    }
+
+    /**
+     * Copies an encoded entry to the last arena, or to a new arena if it does not fit. Must hold
+     * the write lock.
+     *
+     * @return The location of the entry: the index of its arena, and its offset in the arena.
+     */
+    private long append(ByteBuffer entry) {
+        int length = entry.remaining();
+        if (arenas.isEmpty() || arenaPosition + length > arenas.get(arenas.size() - 1).capacity()) {
+            arenas.add(ByteBuffer.allocateDirect(Math.max(arenaSize, length)));
+            arenaPosition = 0;
+        }
+        int index = arenas.size() - 1;
+        ByteBuffer arena = arenas.get(index);
+        arena.position(arenaPosition);
+        arena.put(entry);
+
+        long location = ((long) index << 32) | arenaPosition;
+        arenaPosition += length;
+        appendedBytes += length;
+        return location;
+    }
+
+    /**
+     * Copies the live entries to new arenas if holes take more than the allowed share of the
+     * arenas. Must hold the write lock.
+     */
+    private void compactIfNeeded() {
+        if (appendedBytes < arenaSize || liveBytes >= appendedBytes * (1 - MAX_GARBAGE_RATIO))
+            return;
+
+        List<ByteBuffer> oldArenas = new ArrayList<>(arenas);
+        arenas.clear();
+        arenaPosition = 0;
+        appendedBytes = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (table.getLong(slot * SLOT_SIZE) == 0)
+                continue;
+            long location = locationAt(slot);
+            ByteBuffer entry = oldArenas.get(arenaOf(location)).duplicate();
+            int offset = offsetOf(location);
+            entry.limit(offset + entry.getInt(offset));
+            entry.position(offset);
+            table.putLong(slot * SLOT_SIZE + 8, append(entry));
+        }
+    }
+
+    /**
+     * Encodes the entry of a node in the scratch buffer, growing it if needed. Only called by
+     * the thread changing the store.
+     *
+     * @return The scratch buffer, with the entry between position 0 and the limit.
+     */
+    private ByteBuffer encode(DNSNode node, Set<ResourceRecord> records) {
+        while (true) {
+            ByteBuffer out = scratch;
+            out.clear();
+            try {
+                out.putInt(0); // length, set below
+                out.putShort((short) node.getType().getCode());
+                node.getName().writeTo(out);
+                out.putShort((short) records.size());
+                for (ResourceRecord record : records) {
+                    out.putLong(record.getExpirationTime());
+                    record.writeResult(out);
+                }
+                out.putInt(0, out.position());
+                out.flip();
+                return out;
+            } catch (BufferOverflowException ex) {
+                scratch = ByteBuffer.allocate(out.capacity() * 2);
+            }
+        }
+    }
+
+    /**
+     * Decodes the records of an entry. Must hold a lock.
+     */
+    private Set<ResourceRecord> decode(long location, DNSNode node) {
+        ByteBuffer in = arenas.get(arenaOf(location)).duplicate();
+        in.position(offsetOf(location) + NAME_OFFSET + node.getName().getWireLength());
+        int count = in.getShort() & 0xFFFF;
+
+        Set<ResourceRecord> records = new HashSet<>(count * 2);
+        ResourceRecord record = null;
+        for (int i = 0; i < count; i++) {
+            long expirationTime = in.getLong();
+            record = ResourceRecord.readResult(in, node.getName(), node.getType());
+            record.setExpirationTime(expirationTime);
+            records.add(record);
+        }
+        return count == 1 ? Collections.singleton(record) : Collections.unmodifiableSet(records);
+    }
+
+    private long locationAt(int slot) {
+        return table.getLong(slot * SLOT_SIZE + 8);
+    }
+
+    private int entryLength(long location) {
+        return arenas.get(arenaOf(location)).getInt(offsetOf(location));
+    }
+
+    private static int arenaOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    /**
+     * Mixes the hash code of a node into 64 bits, so the low bits used to pick a slot depend on
+     * every bit of the name. Never returns 0, which marks an empty slot.
+     */
+    private static long hash(DNSNode node) {
+        long hash = node.getName().hashCode() * 31L + node.getType().getCode();
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash != 0 ? hash : 1;
+    }
+}
@@ -0,0 +1,65 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.security.SecureRandom;
+import java.util.Random;
+
+/**
+ * Allocates the IDs of queries in flight. An ID is unique among the queries in flight, and is
+ * given back with release() once its query is complete (answered, cancelled or timed out), so
+ * IDs never run out however many queries are sent.
+ *
+ * Free IDs are kept in an array; allocating an ID swaps a random free ID with the last one and
+ * takes it, and releasing an ID appends it. Both are constant-time, and every free ID is
+ * equally likely to be allocated next, so IDs remain unpredictable (which makes spoofed
+ * responses harder to forge). This class is thread-safe.
+ */
+public class QueryIdAllocator {
+
+    public static final int ID_COUNT = 0x10000; // IDs are 16 bits
+
+    private final int[] free = new int[ID_COUNT];
+    private final boolean[] allocated = new boolean[ID_COUNT];
+    private final Random random = new SecureRandom();
+    private int freeCount;
+
+    public QueryIdAllocator() {
+        for (int id = 0; id < ID_COUNT; id++)
+            free[id] = id;
+        freeCount = ID_COUNT;
+    }
+
+    /**
+     * Allocates a random ID that is not used by any query in flight.
+     *
+     * @return The ID, between 0 and 65535, or -1 if all IDs are in use.
+     */
+    public synchronized int allocate() {
+        if (freeCount == 0)
+            return -1;
+        int index = random.nextInt(freeCount);
+        int id = free[index];
+        free[index] = free[--freeCount];
+        allocated[id] = true;
+        return id;
+    }
+
+    /**
+     * Gives back an ID once its query is complete. Releasing an ID that is not allocated has no
+     * effect.
+     *
+     * @param id ID obtained from allocate().
+     */
+    public synchronized void release(int id) {
+        if (!allocated[id])
+            return;
+        allocated[id] = false;
+        free[freeCount++] = id;
+    }
+
+    /**
+     * Returns the number of IDs currently allocated.
+     */
+    public synchronized int getAllocatedCount() {
+        return ID_COUNT - freeCount;
+    }
+}
@@ -0,0 +1,257 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.PrintStream;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Replays a log of queries against the resolver, to measure how it copes with a real mix of
+ * names. Each line of the log holds a host name, optionally preceded by the time the query was
+ * received (in seconds, e.g., a Unix timestamp with a fraction) and optionally followed by a
+ * record type (A by default). Every query is resolved by DNSLookupService.resolve(), as those
+ * of the lookup command are; the results themselves are not written anywhere.
+ *
+ * Queries are sent either open-loop, at the times given by the log (possibly sped up) or at a
+ * fixed rate, whether or not the previous queries were answered; or closed-loop, by a number of
+ * workers that each send their next query once the previous one is answered. In open-loop mode,
+ * the latency of a query is measured from the time it was due, so that queries held back
+ * because the resolver falls behind count as slow rather than being silently sent later.
+ */
+public class QueryReplay {
+
+    public static final int DEFAULT_WORKERS = 64;
+    // open-loop queries are never held back by a lack of threads, as long as fewer are pending
+    private static final int OPEN_LOOP_THREADS = 256;
+
+    private enum Mode { LOG_TIMES, FIXED_RATE, WORKERS }
+
+    private final Mode mode;
+    private final double rate; // speed factor, queries per second, or number of workers
+    private final LatencyHistogram latency = new LatencyHistogram(); // in microseconds
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong invalidCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong(); // queries answered from the cache
+    private long offeredCount; // number of queries sent in open-loop mode
+    private long offeredSpan; // time between the first and the last due query, in nanoseconds
+    private RuntimeException readError; // thrown by the source of lines in a worker
+
+    private QueryReplay(Mode mode, double rate) {
+        this.mode = mode;
+        this.rate = rate;
+    }
+
+    /**
+     * Returns a replay sending each query at the time it was received, according to the log,
+     * relative to the first query. Queries without a time are sent with the previous one.
+     *
+     * @param speed Factor the pace of the log is multiplied by, e.g., 2 to send the queries in
+     *              half the time they were received in.
+     */
+    public static QueryReplay atLogTimes(double speed) {
+        return new QueryReplay(Mode.LOG_TIMES, speed);
+    }
+
+    /**
+     * Returns a replay sending queries at a fixed rate, ignoring the times in the log.
+     *
+     * @param queriesPerSecond Number of queries sent every second.
+     */
+    public static QueryReplay atFixedRate(double queriesPerSecond) {
+        return new QueryReplay(Mode.FIXED_RATE, queriesPerSecond);
+    }
+
+    /**
+     * Returns a replay sending queries from a number of workers, each waiting for the answer to
+     * its query before sending the next one. The times in the log are ignored.
+     *
+     * @param workers Number of queries in progress at any time.
+     */
+    public static QueryReplay withWorkers(int workers) {
+        return new QueryReplay(Mode.WORKERS, workers);
+    }
+
+    /**
+     * Sends every query read from a source of lines, and waits until all of them are answered.
+     * Empty lines and anything after a comment character are ignored.
+     *
+     * @param lines Gives the next line of the log, or null at the end of the log.
+     * @return The time taken to replay the log, in nanoseconds.
+     * @throws RuntimeException thrown by the source of lines, e.g., UncheckedIOException, once
+     * the queries already sent are answered.
+     */
+    public long run(Supplier<String> lines) throws InterruptedException {
+        long start = System.nanoTime();
+        if (mode == Mode.WORKERS)
+            runClosedLoop(lines);
+        else
+            runOpenLoop(lines, start);
+        if (readError != null)
+            throw readError;
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Prints the number of queries sent, the throughput, the share of queries answered from the
+     * cache and the percentiles of the time taken to answer a query.
+     *
+     * @param elapsed Time taken by run(), in nanoseconds.
+     * @param summary Stream the summary is printed to.
+     */
+    public void printSummary(long elapsed, PrintStream summary) {
+        long count = latency.getCount();
+        double seconds = elapsed / 1e9;
+        summary.printf("Replayed %d queries in %.2f s (%.1f queries/s), %d without results, %d invalid\n",
+                count, seconds, seconds > 0 ? count / seconds : 0, failureCount.get(), invalidCount.get());
+        if (mode != Mode.WORKERS && offeredSpan > 0)
+            summary.printf("Offered load: %.1f queries/s\n", (offeredCount - 1) / (offeredSpan / 1e9));
+        long hits = hitCount.get();
+        summary.printf("Cache hit rate: %.2f%% (%d hits, %d misses)\n",
+                count > 0 ? 100.0 * hits / count : 0, hits, count - hits);
+        summary.printf("Latency (ms): p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f\n",
+                latency.getValueAtPercentile(50) / 1e3, latency.getValueAtPercentile(90) / 1e3,
+                latency.getValueAtPercentile(99) / 1e3, latency.getValueAtPercentile(99.9) / 1e3,
+                latency.getMaxValue() / 1e3);
+    }
+
+    private void runOpenLoop(Supplier<String> lines, long start) throws InterruptedException {
+        ExecutorService pool = newPool(OPEN_LOOP_THREADS);
+        try {
+            double firstTime = Double.NaN;
+            long offset = 0;
+            long sent = 0;
+            String line;
+            while ((line = lines.get()) != null) {
+                Query query = Query.parse(line);
+                if (query == null)
+                    continue;
+
+                if (mode == Mode.FIXED_RATE)
+                    offset = (long) (sent * 1e9 / rate);
+                else if (!Double.isNaN(query.time)) {
+                    if (Double.isNaN(firstTime))
+                        firstTime = query.time;
+                    // logs written by several threads are not always in order; never go back
+                    offset = Math.max(offset, (long) ((query.time - firstTime) * 1e9 / rate));
+                }
+                sent++;
+
+                long due = start + offset;
+                long wait = due - System.nanoTime();
+                if (wait > 0)
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                pool.execute(() -> lookup(query, due));
+            }
+            offeredCount = sent;
+            offeredSpan = offset;
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void runClosedLoop(Supplier<String> lines) throws InterruptedException {
+        int workers = (int) rate;
+        ExecutorService pool = newPool(workers);
+        try {
+            for (int i = 0; i < workers; i++)
+                pool.execute(() -> {
+                    Query query;
+                    while ((query = nextQuery(lines)) != null)
+                        lookup(query, System.nanoTime());
+                });
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Query nextQuery(Supplier<String> lines) {
+        synchronized (lines) {
+            if (readError != null)
+                return null;
+            try {
+                String line;
+                while ((line = lines.get()) != null) {
+                    Query query = Query.parse(line);
+                    if (query != null)
+                        return query;
+                }
+            } catch (RuntimeException ex) {
+                readError = ex;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Resolves a query and records the time since it was due.
+     *
+     * @param query Query to resolve.
+     * @param due   Value of System.nanoTime() when the query was due.
+     */
+    private void lookup(Query query, long due) {
+        DNSNode node;
+        try {
+            RecordType type = query.type == null ? RecordType.A : RecordType.valueOf(query.type.toUpperCase());
+            node = new DNSNode(query.hostName, type);
+        } catch (IllegalArgumentException ex) {
+            invalidCount.incrementAndGet();
+            return;
+        }
+        ResolutionContext context = new ResolutionContext(node.getName());
+        Set<ResourceRecord> results = DNSLookupService.resolve(context, node);
+        latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - due));
+        if (!context.hasMissedCache())
+            hitCount.incrementAndGet();
+        if (results.isEmpty())
+            failureCount.incrementAndGet();
+    }
+
+    private static ExecutorService newPool(int threads) {
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "dns-replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * A line of the log, checked only once it is resolved, so that a name or type that cannot
+     * be resolved is counted rather than stopping the replay.
+     */
+    private static class Query {
+        private final double time; // NaN if the line has no time
+        private final String hostName;
+        private final String type; // null for the default type
+
+        private Query(double time, String hostName, String type) {
+            this.time = time;
+            this.hostName = hostName;
+            this.type = type;
+        }
+
+        /**
+         * @return The query on a line, or null if the line is empty or only holds a comment.
+         */
+        private static Query parse(String line) {
+            String[] fields = line.split("#", 2)[0].trim().split("\\s+");
+            if (fields[0].isEmpty())
+                return null;
+            int first = 0;
+            double time = Double.NaN;
+            if (fields.length > 1) {
+                try {
+                    time = Double.parseDouble(fields[0]);
+                    first = 1;
+                } catch (NumberFormatException ex) {
+                    // no time, the line starts with the name
+                }
+            }
+            return new Query(time, fields[first], fields.length > first + 1 ? fields[first + 1] : null);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A lossy buffer recording the elements read from a cache, so the eviction policy can be told
+ * about them later, while holding its lock, instead of on every read. The buffer is split in
+ * stripes chosen by thread, so concurrent readers rarely compete for the same stripe. When a
+ * stripe is full or another reader is writing to it, the element is dropped: the policy only
+ * needs an approximate view of which elements are popular.
+ *
+ * Any number of threads may call offer(), but only one thread at a time may call drainTo().
+ *
+ * @param <E> Type of the elements recorded.
+ */
+public class ReadBuffer<E> {
+
+    private static final int STRIPES =
+            Integer.highestOneBit(Math.max(4 * Runtime.getRuntime().availableProcessors() - 1, 1)) << 1;
+    private static final int STRIPE_SIZE = 16;
+    private static final int STRIPE_MASK = STRIPE_SIZE - 1;
+    private static final int DRAIN_THRESHOLD = STRIPE_SIZE / 2;
+
+    private final Stripe<E>[] stripes;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ReadBuffer() {
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Stripe<>();
+    }
+
+    /**
+     * Records an element, unless the stripe used by this thread is full.
+     *
+     * @param element Element that was read.
+     * @return true if the buffer should be drained soon, false otherwise.
+     */
+    public boolean offer(E element) {
+        int index = (int) (Thread.currentThread().getId() * 0x9E3779B9L) & (STRIPES - 1);
+        return stripes[index].offer(element);
+    }
+
+    /**
+     * Passes every recorded element to a consumer, and removes them from the buffer.
+     *
+     * @param consumer Action performed for each recorded element.
+     */
+    public void drainTo(Consumer<E> consumer) {
+        for (Stripe<E> stripe : stripes)
+            stripe.drainTo(consumer);
+    }
+
+    private static class Stripe<E> {
+        private final AtomicReferenceArray<E> buffer = new AtomicReferenceArray<>(STRIPE_SIZE);
+        private final AtomicLong writeCount = new AtomicLong();
+        private volatile long readCount;
+
+        private boolean offer(E element) {
+            long tail = writeCount.get();
+            long size = tail - readCount;
+            if (size >= STRIPE_SIZE)
+                return true;
+            if (!writeCount.compareAndSet(tail, tail + 1))
+                return false;
+            buffer.lazySet((int) (tail & STRIPE_MASK), element);
+            return size + 1 >= DRAIN_THRESHOLD;
+        }
+
+        private void drainTo(Consumer<E> consumer) {
+            long head = readCount;
+            long tail = writeCount.get();
+            for (; head < tail; head++) {
+                int index = (int) (head & STRIPE_MASK);
+                E element = buffer.get(index);
+                if (element == null)
+                    break; // claimed by a reader that has not written it yet
+                buffer.lazySet(index, null);
+                consumer.accept(element);
+            }
+            readCount = head;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Storage of the record sets of a DNS cache, keyed by node. The sets stored are immutable, and
+ * a set returned by get() is not affected by later changes to the store.
+ *
+ * Any number of threads may read from a store while it is being changed, but changes must be
+ * made by one thread at a time; the cache makes them while holding its maintenance lock.
+ */
+public interface RecordStore {
+
+    /**
+     * Returns the records stored for a node, or null if there is none.
+     */
+    Set<ResourceRecord> get(DNSNode node);
+
+    /**
+     * Returns true if records are stored for a node.
+     */
+    boolean containsKey(DNSNode node);
+
+    /**
+     * Stores the records of a node, replacing any records stored for it.
+     *
+     * @param node    Host name and record type.
+     * @param records Non-empty, immutable set of records.
+     */
+    void put(DNSNode node, Set<ResourceRecord> records);
+
+    /**
+     * Removes the records of a node.
+     *
+     * @return true if records were stored for the node, false otherwise.
+     */
+    boolean remove(DNSNode node);
+
+    /**
+     * Performs an action for each node and its records, in no particular order.
+     */
+    void forEach(BiConsumer<DNSNode, Set<ResourceRecord>> consumer);
+
+    /**
+     * Returns the number of nodes with stored records.
+     */
+    int size();
+}
@@ -0,0 +1,121 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Holds the state of a single iterative resolution. Each lookup uses its own context, so several
+ * resolutions can run at the same time without interfering with each other. The nested lookups
+ * a resolution performs to resolve the addresses of name servers are not separate resolutions:
+ * they use the context of the lookup that needs them, and so share its current servers, the
+ * nodes it is resolving and whether it missed the cache.
+ */
+public class ResolutionContext {
+
+    public static final int MAX_QUERIES_IN_FLIGHT = 4;
+
+    private List<InetAddress> currentServers = Collections.emptyList(); // empty to start at the closest known zone
+    private List<InetAddress> nextServers; // servers to search next if current search fails
+    private DomainName nextNSRecord;
+    private DomainName currentDomain;
+    private final Set<DNSNode> resolving = new HashSet<>();
+    private boolean missedCache;
+    private final DNSMessageDecoder decoder = new DNSMessageDecoder();
+    private final ByteBuffer[] queryBuffers = new ByteBuffer[MAX_QUERIES_IN_FLIGHT];
+    private ByteBuffer tcpQueryBuffer;
+
+    public ResolutionContext(DomainName currentDomain) {
+        this.currentDomain = currentDomain;
+    }
+
+    /**
+     * Name servers of the zone the next query is sent to, in order of preference. An empty list
+     * means that the query should start at the closest zone with a known name server.
+     */
+    public List<InetAddress> getCurrentServers() {
+        return currentServers;
+    }
+
+    public void setCurrentServers(List<InetAddress> currentServers) {
+        this.currentServers = currentServers;
+    }
+
+    public List<InetAddress> getNextServers() {
+        return nextServers;
+    }
+
+    public void setNextServers(List<InetAddress> nextServers) {
+        this.nextServers = nextServers;
+    }
+
+    public DomainName getNextNSRecord() {
+        return nextNSRecord;
+    }
+
+    public void setNextNSRecord(DomainName nextNSRecord) {
+        this.nextNSRecord = nextNSRecord;
+    }
+
+    public DomainName getCurrentDomain() {
+        return currentDomain;
+    }
+
+    /**
+     * Returns true if this resolution is the one querying servers for a node, so that it does
+     * not wait for itself when it asks for the same node again (e.g., with the next servers).
+     */
+    public boolean isResolving(DNSNode node) {
+        return resolving.contains(node);
+    }
+
+    public void setResolving(DNSNode node, boolean resolving) {
+        if (resolving)
+            this.resolving.add(node);
+        else
+            this.resolving.remove(node);
+    }
+
+    /**
+     * Returns true if a node this resolution needed (the node itself, a CNAME target or a name
+     * server address) was not cached, so that servers had to be queried, either by this
+     * resolution or by another one it waited for. False means the answer came from the cache.
+     */
+    public boolean hasMissedCache() {
+        return missedCache;
+    }
+
+    public void setMissedCache() {
+        this.missedCache = true;
+    }
+
+    public DNSMessageDecoder getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * Buffer a query of this resolution is encoded into. Each of the queries that may be in
+     * flight at the same time for a single question (e.g., a hedged query) has its own buffer,
+     * reused by the following questions, so it must not be changed while its query is in flight.
+     *
+     * @param index Index of the query among those in flight, below MAX_QUERIES_IN_FLIGHT.
+     */
+    public ByteBuffer getQueryBuffer(int index) {
+        if (queryBuffers[index] == null)
+            queryBuffers[index] = ByteBuffer.allocateDirect(DNSMessageEncoder.MAX_QUERY_SIZE);
+        return queryBuffers[index];
+    }
+
+    /**
+     * Buffer a query sent over TCP is encoded into. The TCP transport copies a query when it is
+     * sent, so a single buffer is enough, however many TCP queries are in flight.
+     */
+    public ByteBuffer getTcpQueryBuffer() {
+        if (tcpQueryBuffer == null)
+            tcpQueryBuffer = ByteBuffer.allocate(DNSMessageEncoder.MAX_QUERY_SIZE);
+        return tcpQueryBuffer;
+    }
+}
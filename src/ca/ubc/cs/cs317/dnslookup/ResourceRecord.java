@@ -1,102 +1,262 @@
-package ca.ubc.cs.cs317.dnslookup;
-
-import java.io.Serializable;
-import java.net.InetAddress;
-import java.util.Date;
-
-/** A resource record corresponds to each individual result returned by a DNS response. It links
- * a DNS node (host name and record type) to either an IP address (e.g., A or AAAA records) or
- * a textual response (e.g., CNAME or NS records). A TTL (time-to-live) field is also specified,
- * and is represented by an expiration time calculated as a delta from the current time.
- */
-public class ResourceRecord implements Serializable {
-
-    private DNSNode node;
-    private Date expirationTime;
-    private String textResult;
-    private InetAddress inetResult;
-
-    public ResourceRecord(String hostName, RecordType type, long ttl, String result) {
-        this.node = new DNSNode(hostName, type);
-        this.expirationTime = new Date(System.currentTimeMillis() + (ttl * 1000));
-        this.textResult = result;
-        this.inetResult = null;
-    }
-
-    public ResourceRecord(String hostName, RecordType type, long ttl, InetAddress result) {
-        this(hostName, type, ttl, result.getHostAddress());
-        this.inetResult = result;
-    }
-
-    public DNSNode getNode() {
-        return node;
-    }
-
-    public String getHostName() {
-        return node.getHostName();
-    }
-
-    public RecordType getType() {
-        return node.getType();
-    }
-
-    /** The TTL for this record. It is returned based on the (ceiling of the) number of seconds
-     * remaining until this record expires. The TTL returned by this method will only match the
-     * TTL obtained from the DNS server in the first second from the time this record was
-     * created.
-     *
-     * @return The number of seconds, rounded up, until this record expires.
-     */
-    public long getTTL() {
-        return (expirationTime.getTime() - System.currentTimeMillis() + 999) / 1000;
-    }
-
-    /** Returns true if this record has not expired yet, and false otherwise. An expired record
-     * should not be maintained in cache, and should instead be retrieved again from an
-     * authoritative DNS server.
-     *
-     * @return true if this record has not expired yet, and false otherwise.
-     */
-    public boolean isStillValid() {
-        return expirationTime.after(new Date());
-    }
-
-    /** Returns true if this record expires before another record. This method may be used to
-     * identify if a newly acquired record should replace the one currently in the cache. It
-     * may also potentially be used, for example, to identify if a CNAME record expires before
-     * the equivalent A record it links to.
-     *
-     * @param record Another resource record whose expiration this record should be compared with.
-     * @return true if this record expires before the parameter record, or false otherwise.
-     */
-    public boolean expiresBefore(ResourceRecord record) {
-        return this.expirationTime.before(record.expirationTime);
-    }
-
-    public String getTextResult() {
-        return textResult;
-    }
-
-    public InetAddress getInetResult() {
-        return inetResult;
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-
-        ResourceRecord record = (ResourceRecord) o;
-
-        if (!node.equals(record.node)) return false;
-        if (!textResult.equals(record.textResult)) return false;
-        return inetResult != null ? inetResult.equals(record.inetResult) : record.inetResult == null;
-    }
-
-    @Override
-    public int hashCode() {
-        int result = node.hashCode();
-        result = 31 * result + textResult.hashCode();
-        return result;
-    }
-}
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** A resource record corresponds to each individual result returned by a DNS response. It links
+ * a DNS node (host name and record type) to either an IP address (e.g., A or AAAA records) or
+ * a textual response (e.g., CNAME or NS records). A TTL (time-to-live) field is also specified,
+ * and is represented by an expiration time calculated as a delta from the current time.
+ *
+ * Addresses are kept as the raw bytes of the record data. The InetAddress and the textual form
+ * of an address are only built when first requested, as most address records are only cached
+ * and compared. Expiration times are in milliseconds since the epoch, as given by
+ * System.currentTimeMillis().
+ */
+public class ResourceRecord implements Serializable {
+
+    // kinds of result, in the binary form written by writeResult()
+    private static final byte TEXT_RESULT = 0;
+    private static final byte ADDRESS_RESULT = 1;
+    private static final byte NAME_RESULT = 2;
+
+    private DNSNode node;
+    private long expirationTime;
+    private byte[] addressResult;
+    private DomainName nameResult;
+    private String textResult; // computed when first needed for addresses
+    private transient InetAddress inetResult; // computed when first needed
+
+    public ResourceRecord(String hostName, RecordType type, long ttl, String result) {
+        this(DomainName.of(hostName), type, ttl, result);
+    }
+
+    public ResourceRecord(String hostName, RecordType type, long ttl, InetAddress result) {
+        this(DomainName.of(hostName), type, ttl, result);
+    }
+
+    public ResourceRecord(DomainName name, RecordType type, long ttl, String result) {
+        this.node = new DNSNode(name, type);
+        this.expirationTime = System.currentTimeMillis() + (ttl * 1000);
+        this.textResult = result;
+    }
+
+    public ResourceRecord(DomainName name, RecordType type, long ttl, InetAddress result) {
+        this(name, type, ttl, result.getAddress());
+        this.inetResult = result;
+    }
+
+    /** Creates a record whose result is an address (e.g., A or AAAA records), given as the raw
+     * bytes of the record data.
+     *
+     * @param type    A or AAAA.
+     * @param address IPv4 address of 4 bytes for an A record, or IPv6 address of 16 bytes for an
+     *                AAAA record. The array is kept by the record, so it must not be modified
+     *                afterwards.
+     * @throws IllegalArgumentException if the length of the address does not match the type.
+     */
+    public ResourceRecord(DomainName name, RecordType type, long ttl, byte[] address) {
+        int length = type == RecordType.A ? 4 : type == RecordType.AAAA ? 16 : -1;
+        if (address.length != length)
+            throw new IllegalArgumentException("Invalid address of " + address.length + " bytes for a "
+                    + type + " record");
+        this.node = new DNSNode(name, type);
+        this.expirationTime = System.currentTimeMillis() + (ttl * 1000);
+        this.addressResult = address;
+    }
+
+    /** Creates a record whose result is a domain name (e.g., CNAME or NS records). The textual
+     * result is the canonical form of the name.
+     */
+    public ResourceRecord(DomainName name, RecordType type, long ttl, DomainName result) {
+        this(name, type, ttl, result.toString());
+        this.nameResult = result;
+    }
+
+    public DNSNode getNode() {
+        return node;
+    }
+
+    public String getHostName() {
+        return node.getHostName();
+    }
+
+    public RecordType getType() {
+        return node.getType();
+    }
+
+    /** The TTL for this record. It is returned based on the (ceiling of the) number of seconds
+     * remaining until this record expires. The TTL returned by this method will only match the
+     * TTL obtained from the DNS server in the first second from the time this record was
+     * created.
+     *
+     * @return The number of seconds, rounded up, until this record expires.
+     */
+    public long getTTL() {
+        return (expirationTime - System.currentTimeMillis() + 999) / 1000;
+    }
+
+    /** Returns true if this record has not expired yet, and false otherwise. An expired record
+     * should not be maintained in cache, and should instead be retrieved again from an
+     * authoritative DNS server.
+     *
+     * @return true if this record has not expired yet, and false otherwise.
+     */
+    public boolean isStillValid() {
+        return expirationTime > System.currentTimeMillis();
+    }
+
+    /** The time at which this record expires.
+     *
+     * @return The expiration time, in milliseconds since the epoch.
+     */
+    public long getExpirationTime() {
+        return expirationTime;
+    }
+
+    /** Changes the time at which this record expires, e.g., for a record restored from a
+     * snapshot of the cache.
+     *
+     * @param expirationTime The expiration time, in milliseconds since the epoch.
+     */
+    public void setExpirationTime(long expirationTime) {
+        this.expirationTime = expirationTime;
+    }
+
+    /** Returns true if this record expires before another record. This method may be used to
+     * identify if a newly acquired record should replace the one currently in the cache. It
+     * may also potentially be used, for example, to identify if a CNAME record expires before
+     * the equivalent A record it links to.
+     *
+     * @param record Another resource record whose expiration this record should be compared with.
+     * @return true if this record expires before the parameter record, or false otherwise.
+     */
+    public boolean expiresBefore(ResourceRecord record) {
+        return this.expirationTime < record.expirationTime;
+    }
+
+    public String getTextResult() {
+        if (textResult == null)
+            textResult = addressToText();
+        return textResult;
+    }
+
+    /** Returns the address this record links to, or null if the result is not an address.
+     */
+    public InetAddress getInetResult() {
+        if (inetResult == null && addressResult != null) {
+            try {
+                inetResult = InetAddress.getByAddress(addressResult);
+            } catch (UnknownHostException ex) {
+                throw new IllegalStateException(ex); // length checked by the constructor
+            }
+        }
+        return inetResult;
+    }
+
+    /** Returns the raw bytes of the address this record links to, or null if the result is not
+     * an address. The array must not be modified.
+     */
+    public byte[] getAddressResult() {
+        return addressResult;
+    }
+
+    /** Returns the domain name this record links to, or null if the result is not a name.
+     */
+    public DomainName getNameResult() {
+        return nameResult;
+    }
+
+    /** Writes the result of this record in the binary form read by readResult(): a kind byte,
+     * followed by the address (length byte and bytes), the name in wire format, or the text in
+     * UTF-8 (length int and bytes). Used to keep records off the heap and in cache snapshots.
+     *
+     * @param out Buffer the result is written to, at its current position.
+     * @throws java.nio.BufferOverflowException if the result does not fit in the buffer.
+     */
+    public void writeResult(ByteBuffer out) {
+        if (addressResult != null) {
+            out.put(ADDRESS_RESULT);
+            out.put((byte) addressResult.length);
+            out.put(addressResult);
+        } else if (nameResult != null) {
+            out.put(NAME_RESULT);
+            nameResult.writeTo(out);
+        } else {
+            byte[] text = textResult.getBytes(StandardCharsets.UTF_8);
+            out.put(TEXT_RESULT);
+            out.putInt(text.length);
+            out.put(text);
+        }
+    }
+
+    /** Reads a result written by writeResult(), and creates a record with this result. The
+     * record is already expired; the caller sets its expiration time.
+     *
+     * @param in   Buffer the result is read from, at its current position.
+     * @param name Host name of the record.
+     * @param type Record type of the record.
+     * @return The record.
+     * @throws IllegalArgumentException if the buffer does not hold a valid result.
+     * @throws java.nio.BufferUnderflowException if the buffer ends before the result.
+     */
+    public static ResourceRecord readResult(ByteBuffer in, DomainName name, RecordType type) {
+        byte kind = in.get();
+        if (kind == ADDRESS_RESULT) {
+            byte[] address = new byte[in.get() & 0xFF];
+            in.get(address);
+            return new ResourceRecord(name, type, 0, address); // length checked by the constructor
+        } else if (kind == NAME_RESULT) {
+            return new ResourceRecord(name, type, 0, DomainName.readFrom(in));
+        } else if (kind == TEXT_RESULT) {
+            int length = in.getInt();
+            if (length < 0 || length > in.remaining())
+                throw new IllegalArgumentException("Invalid text result of " + length + " bytes");
+            byte[] text = new byte[length];
+            in.get(text);
+            return new ResourceRecord(name, type, 0, new String(text, StandardCharsets.UTF_8));
+        }
+        throw new IllegalArgumentException("Unknown kind of result: " + kind);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ResourceRecord record = (ResourceRecord) o;
+
+        if (!node.equals(record.node)) return false;
+        if (addressResult != null || record.addressResult != null)
+            return Arrays.equals(addressResult, record.addressResult);
+        if (nameResult != null || record.nameResult != null)
+            return nameResult == record.nameResult || (nameResult != null && nameResult.equals(record.nameResult));
+        return textResult.equals(record.textResult);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = node.hashCode();
+        result = 31 * result + (addressResult != null ? Arrays.hashCode(addressResult)
+                : nameResult != null ? nameResult.hashCode() : textResult.hashCode());
+        return result;
+    }
+
+    /** Formats an address as text: dotted decimal for IPv4, and the usual notation for IPv6.
+     */
+    private String addressToText() {
+        if (addressResult.length != 4)
+            return getInetResult().getHostAddress();
+        StringBuilder text = new StringBuilder(15);
+        for (int i = 0; i < addressResult.length; i++) {
+            if (i > 0)
+                text.append('.');
+            text.append(addressResult[i] & 0xFF);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,544 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A simulated DNS hierarchy: root, top-level domain and authoritative servers answering on
+ * loopback addresses, all on the same port, from a declarative description of their zones. It
+ * lets the resolver be tested and measured without a network, under controlled conditions.
+ *
+ * The description is a text file with one declaration per line, where # starts a comment:
+ *
+ *   server NAME ADDRESS [latency=MS] [jitter=MS] [loss=PERCENT] [truncate] [refuse] [noedns]
+ *   zone ZONE SERVER...
+ *   NAME TTL TYPE DATA
+ *
+ * A server line declares a server listening on ADDRESS (e.g., 127.0.0.2). Its responses are sent
+ * after the latency plus a random part of the jitter, the given percentage of the queries it
+ * receives over UDP is ignored, and with truncate, its UDP responses never include any record,
+ * so the resolver has to ask again over TCP. With refuse, the server answers every query with
+ * REFUSED, as a lame server of its zones would, and with noedns, it answers queries with an OPT
+ * record with FORMERR, as servers that predate EDNS do. A zone line declares a zone (. for the root)
+ * served by the named servers, and the record lines that follow belong to that zone. A, AAAA,
+ * NS and CNAME records are supported. Delegations are written as in real zones: the parent zone
+ * has the NS records of the child zone, and the addresses of the name servers (glue) if it
+ * knows them; leaving out the addresses gives a delegation without glue.
+ *
+ * Servers answer as authoritative servers do: with a referral (NS records and their glue) for
+ * names below a delegation, with the records of the name, following CNAME chains through the
+ * zones of the server, or with no data or a name error and the SOA record of the zone, which is
+ * generated. Responses larger than the UDP payload size of the query (512 bytes without EDNS)
+ * are truncated. Every server answers over both UDP and TCP. The queries a server ignores are
+ * picked pseudo-randomly from a seed derived from its name, so the same sequence of queries is
+ * always lost in the same way.
+ *
+ * Linux routes all of 127/8 to the loopback interface; on other systems, the addresses of the
+ * servers may have to be added as aliases of the loopback interface first.
+ */
+public class SimulatedHierarchy implements Closeable {
+
+    public static final int DEFAULT_PORT = 5300;
+    private static final int NEGATIVE_TTL = 300; // MINIMUM of the generated SOA records
+    private static final int MAX_CNAME_CHAIN = 8;
+
+    private final Map<String, Server> servers = new LinkedHashMap<>();
+    private final Map<DomainName, Zone> zones = new HashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "simulated-dns");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private SimulatedHierarchy() {
+    }
+
+    /**
+     * Reads the description of a hierarchy and starts its servers.
+     *
+     * @param description Path of the description of the servers and zones.
+     * @param port        Port every server listens on, over UDP and TCP.
+     * @return The running hierarchy.
+     * @throws IOException if the description could not be read or is invalid, or a server could
+     * not listen on its address.
+     */
+    public static SimulatedHierarchy start(Path description, int port) throws IOException {
+        SimulatedHierarchy hierarchy = new SimulatedHierarchy();
+        hierarchy.parse(description);
+        if (!hierarchy.zones.containsKey(DomainName.of("")))
+            throw new IOException(description + ": no server for the root zone (.)");
+        try {
+            for (Server server : hierarchy.servers.values())
+                hierarchy.listen(server, port);
+        } catch (IOException ex) {
+            hierarchy.close();
+            throw ex;
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Returns the address of the first server of the root zone, where resolutions should start.
+     */
+    public InetAddress getRootServer() {
+        return zones.get(DomainName.of("")).servers.get(0).address;
+    }
+
+    /**
+     * Returns the number of servers of the hierarchy.
+     */
+    public int getServerCount() {
+        return servers.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        for (Server server : servers.values()) {
+            if (server.udp != null)
+                server.udp.close();
+            if (server.tcp != null)
+                server.tcp.close();
+        }
+    }
+
+    private void parse(Path description) throws IOException {
+        Zone zone = null;
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(description, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            String[] fields = line.split("#", 2)[0].trim().split("\\s+");
+            if (fields[0].isEmpty())
+                continue;
+            try {
+                if (fields[0].equalsIgnoreCase("server"))
+                    parseServer(fields);
+                else if (fields[0].equalsIgnoreCase("zone"))
+                    zone = parseZone(fields);
+                else if (zone == null)
+                    throw new IllegalArgumentException("record outside of a zone");
+                else
+                    zone.add(parseRecord(fields, zone));
+            } catch (IllegalArgumentException ex) {
+                throw new IOException(description + ":" + lineNumber + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    private void parseServer(String[] fields) {
+        if (fields.length < 3)
+            throw new IllegalArgumentException("expected: server NAME ADDRESS [options]");
+        if (servers.containsKey(fields[1]))
+            throw new IllegalArgumentException("server " + fields[1] + " declared twice");
+        Server server = new Server(fields[1], parseAddress(fields[2], false));
+        for (int i = 3; i < fields.length; i++) {
+            String[] option = fields[i].split("=", 2);
+            if (option[0].equalsIgnoreCase("truncate") && option.length == 1)
+                server.truncate = true;
+            else if (option[0].equalsIgnoreCase("refuse") && option.length == 1)
+                server.refuse = true;
+            else if (option[0].equalsIgnoreCase("noedns") && option.length == 1)
+                server.noEdns = true;
+            else if (option.length == 2 && option[0].equalsIgnoreCase("latency"))
+                server.latency = parseNumber(option[1], 0, Integer.MAX_VALUE);
+            else if (option.length == 2 && option[0].equalsIgnoreCase("jitter"))
+                server.jitter = parseNumber(option[1], 0, Integer.MAX_VALUE);
+            else if (option.length == 2 && option[0].equalsIgnoreCase("loss"))
+                server.loss = parseNumber(option[1], 0, 100) / 100.0;
+            else
+                throw new IllegalArgumentException("unknown server option " + fields[i]);
+        }
+        servers.put(server.name, server);
+    }
+
+    private Zone parseZone(String[] fields) {
+        if (fields.length < 3)
+            throw new IllegalArgumentException("expected: zone ZONE SERVER...");
+        Zone zone = new Zone(DomainName.of(fields[1]));
+        if (zones.containsKey(zone.name))
+            throw new IllegalArgumentException("zone " + fields[1] + " declared twice");
+        for (int i = 2; i < fields.length; i++) {
+            Server server = servers.get(fields[i]);
+            if (server == null)
+                throw new IllegalArgumentException("unknown server " + fields[i]);
+            zone.servers.add(server);
+            server.zones.put(zone.name, zone);
+        }
+        zones.put(zone.name, zone);
+        return zone;
+    }
+
+    private static ZoneRecord parseRecord(String[] fields, Zone zone) {
+        if (fields.length != 4)
+            throw new IllegalArgumentException("expected: NAME TTL TYPE DATA");
+        DomainName name = DomainName.of(fields[0]);
+        if (!isWithin(name, zone.name))
+            throw new IllegalArgumentException(name + " is not in zone " + zone.name);
+        int ttl = parseNumber(fields[1], 0, Integer.MAX_VALUE);
+        RecordType type;
+        try {
+            type = RecordType.valueOf(fields[2].toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("unknown record type " + fields[2]);
+        }
+        switch (type) {
+            case A:
+            case AAAA:
+                return new ZoneRecord(name, type, ttl, parseAddress(fields[3], type == RecordType.AAAA).getAddress(), null);
+            case NS:
+            case CNAME:
+                return new ZoneRecord(name, type, ttl, null, DomainName.of(fields[3]));
+            default:
+                throw new IllegalArgumentException("unsupported record type " + type);
+        }
+    }
+
+    /**
+     * Parses an IP address literal, without ever looking up a host name.
+     */
+    private static InetAddress parseAddress(String text, boolean ipv6) {
+        boolean literal = ipv6 ? text.indexOf(':') >= 0 : text.matches("\\d{1,3}(\\.\\d{1,3}){3}");
+        try {
+            if (literal)
+                return InetAddress.getByName(text);
+        } catch (IOException ex) {
+            // not a valid literal either
+        }
+        throw new IllegalArgumentException("invalid " + (ipv6 ? "IPv6" : "IPv4") + " address " + text);
+    }
+
+    private static int parseNumber(String text, int min, int max) {
+        try {
+            int value = Integer.parseInt(text);
+            if (value >= min && value <= max)
+                return value;
+        } catch (NumberFormatException ex) {
+            // reported below
+        }
+        throw new IllegalArgumentException("invalid number " + text);
+    }
+
+    private static boolean isWithin(DomainName name, DomainName zone) {
+        for (DomainName ancestor = name; ancestor != null; ancestor = ancestor.getParent())
+            if (ancestor.equals(zone))
+                return true;
+        return false;
+    }
+
+    private void listen(Server server, int port) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(server.address, port);
+        server.udp = DatagramChannel.open();
+        server.udp.bind(address);
+        server.tcp = ServerSocketChannel.open();
+        server.tcp.bind(address);
+        startThread("simulated-dns-udp-" + server.name, () -> serveUdp(server));
+        startThread("simulated-dns-tcp-" + server.name, () -> serveTcp(server));
+    }
+
+    private void serveUdp(Server server) {
+        ByteBuffer query = ByteBuffer.allocate(DNSMessageEncoder.MAX_QUERY_SIZE);
+        try {
+            while (true) {
+                query.clear();
+                SocketAddress client = server.udp.receive(query);
+                query.flip();
+                if (server.loss > 0 && server.lossRandom.nextDouble() < server.loss)
+                    continue;
+                ByteBuffer response = answer(server, query, true);
+                if (response == null)
+                    continue;
+                scheduler.schedule(() -> {
+                    try {
+                        server.udp.send(response, client);
+                    } catch (IOException ex) {
+                        // client gone, or servers closed
+                    }
+                }, server.getDelay(), TimeUnit.MILLISECONDS);
+            }
+        } catch (ClosedChannelException ex) {
+            // hierarchy closed
+        } catch (IOException ex) {
+            System.err.println("Simulated server " + server.name + " stopped: " + ex.getMessage());
+        }
+    }
+
+    private void serveTcp(Server server) {
+        try {
+            while (true) {
+                Socket socket = server.tcp.accept().socket();
+                startThread("simulated-dns-tcp-" + server.name, () -> serveConnection(server, socket));
+            }
+        } catch (ClosedChannelException ex) {
+            // hierarchy closed
+        } catch (IOException ex) {
+            System.err.println("Simulated server " + server.name + " stopped: " + ex.getMessage());
+        }
+    }
+
+    private void serveConnection(Server server, Socket socket) {
+        try (Socket connection = socket) {
+            DataInputStream in = new DataInputStream(connection.getInputStream());
+            DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+            while (true) {
+                byte[] query = new byte[in.readUnsignedShort()];
+                in.readFully(query);
+                ByteBuffer response = answer(server, ByteBuffer.wrap(query), false);
+                if (response == null)
+                    continue;
+                Thread.sleep(server.getDelay());
+                out.writeShort(response.remaining());
+                out.write(response.array(), 0, response.remaining());
+                out.flush();
+            }
+        } catch (EOFException | InterruptedException ex) {
+            // connection closed by the resolver, or hierarchy closed
+        } catch (IOException ex) {
+            // connection reset
+        }
+    }
+
+    /**
+     * Builds the response of a server to a query.
+     *
+     * @return The response, or null if the query is not a valid query.
+     */
+    private ByteBuffer answer(Server server, ByteBuffer query, boolean udp) {
+        int queryId;
+        DomainName qname;
+        int qtype;
+        int payloadSize = DNSMessageEncoder.MIN_UDP_PAYLOAD_SIZE;
+        boolean edns = false;
+        try {
+            queryId = query.getShort(0) & 0xFFFF;
+            if ((query.getShort(2) & 0x8000) != 0 || query.getShort(4) != 1)
+                return null; // a response, or not exactly one question
+            query.position(12);
+            qname = DomainName.readFrom(query);
+            qtype = query.getShort() & 0xFFFF;
+            query.getShort(); // class
+            if (query.getShort(10) != 0 && query.get() == 0 && query.getShort() == RecordType.OPT.getCode()) {
+                edns = true;
+                payloadSize = Math.max(payloadSize, query.getShort() & 0xFFFF);
+            }
+        } catch (RuntimeException ex) {
+            return null;
+        }
+
+        DNSResponseWriter writer;
+        if (edns && server.noEdns) {
+            // the OPT record is not understood, so neither is the query (RFC 6891, section 7)
+            writer = new DNSResponseWriter(queryId, DNSResponseWriter.REFERRAL | DNSResponseWriter.FORMAT_ERROR,
+                    qname.toString(), qtype);
+        } else {
+            writer = respond(server, queryId, qname, qtype);
+            if (edns)
+                writer.opt(payloadSize);
+        }
+        ByteBuffer response = writer.toBuffer();
+        int questionEnd = 12 + qname.getWireLength() + 4;
+        // echo the question exactly as it was asked, in its original case
+        System.arraycopy(query.array(), query.arrayOffset() + 12, response.array(), 12, questionEnd - 12);
+        if (udp && (server.truncate || response.remaining() > payloadSize))
+            response = truncate(response, questionEnd);
+        return response;
+    }
+
+    private DNSResponseWriter respond(Server server, int queryId, DomainName qname, int qtype) {
+        Zone zone = server.findZone(qname);
+        if (zone == null || server.refuse)
+            return new DNSResponseWriter(queryId, DNSResponseWriter.REFERRAL | DNSResponseWriter.REFUSED, qname.toString(), qtype);
+
+        DomainName cut = zone.findDelegation(qname);
+        if (cut != null) {
+            DNSResponseWriter writer = new DNSResponseWriter(queryId, DNSResponseWriter.REFERRAL, qname.toString(), qtype);
+            List<ZoneRecord> nameServers = zone.get(cut, RecordType.NS);
+            for (ZoneRecord nameServer : nameServers)
+                writer.name(DNSResponseWriter.AUTHORITY, cut.toString(), RecordType.NS, nameServer.ttl, nameServer.target.toString());
+            for (ZoneRecord nameServer : nameServers)
+                for (ZoneRecord glue : zone.getAddresses(nameServer.target))
+                    writer.address(DNSResponseWriter.ADDITIONAL, glue.name.toString(), glue.ttl, glue.address);
+            return writer;
+        }
+
+        // authoritative answer, following CNAME records within the zones of the server
+        DNSResponseWriter writer = new DNSResponseWriter(queryId, DNSResponseWriter.AUTHORITATIVE, qname.toString(), qtype);
+        DomainName name = qname;
+        for (int chain = 0; chain < MAX_CNAME_CHAIN; chain++) {
+            List<ZoneRecord> records = zone.get(name, RecordType.getByCode(qtype));
+            if (!records.isEmpty()) {
+                for (ZoneRecord record : records)
+                    writeRecord(writer, record);
+                return writer;
+            }
+            List<ZoneRecord> aliases = zone.get(name, RecordType.CNAME);
+            if (aliases.isEmpty()) {
+                if (!zone.names.contains(name))
+                    writer.setResponseCode(DNSResponseWriter.NAME_ERROR);
+                writer.soa(DNSResponseWriter.AUTHORITY, zone.name.toString(), NEGATIVE_TTL, NEGATIVE_TTL);
+                return writer;
+            }
+            writeRecord(writer, aliases.get(0));
+            name = aliases.get(0).target;
+            zone = server.findZone(name);
+            if (zone == null || zone.findDelegation(name) != null)
+                return writer; // the resolver follows the alias itself
+        }
+        return writer;
+    }
+
+    private static void writeRecord(DNSResponseWriter writer, ZoneRecord record) {
+        if (record.address != null)
+            writer.address(DNSResponseWriter.ANSWER, record.name.toString(), record.ttl, record.address);
+        else
+            writer.name(DNSResponseWriter.ANSWER, record.name.toString(), record.type, record.ttl, record.target.toString());
+    }
+
+    /**
+     * Returns a copy of the header and question of a response, with the TC flag set and no
+     * record.
+     */
+    private static ByteBuffer truncate(ByteBuffer response, int questionEnd) {
+        ByteBuffer truncated = ByteBuffer.allocate(questionEnd);
+        truncated.put(response.array(), 0, questionEnd);
+        truncated.putShort(2, (short) (truncated.getShort(2) | 0x0200));
+        truncated.putShort(6, (short) 0);
+        truncated.putShort(8, (short) 0);
+        truncated.putShort(10, (short) 0);
+        truncated.flip();
+        return truncated;
+    }
+
+    private static void startThread(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * A simulated server, with the zones it serves and the network conditions it simulates.
+     */
+    private static class Server {
+        private final String name;
+        private final InetAddress address;
+        private final Map<DomainName, Zone> zones = new HashMap<>();
+        private final Random lossRandom; // only used by the UDP thread of the server
+        private int latency; // in milliseconds
+        private int jitter; // in milliseconds
+        private double loss; // share of UDP queries ignored
+        private boolean truncate;
+        private boolean refuse; // answer every query with REFUSED
+        private boolean noEdns; // answer queries with an OPT record with FORMERR
+        private DatagramChannel udp;
+        private ServerSocketChannel tcp;
+
+        private Server(String name, InetAddress address) {
+            this.name = name;
+            this.address = address;
+            this.lossRandom = new Random(name.hashCode());
+        }
+
+        /**
+         * Returns the deepest zone of this server enclosing a name, or null if there is none.
+         */
+        private Zone findZone(DomainName name) {
+            for (DomainName zone = name; zone != null; zone = zone.getParent())
+                if (zones.containsKey(zone))
+                    return zones.get(zone);
+            return null;
+        }
+
+        private long getDelay() {
+            return latency + (jitter > 0 ? ThreadLocalRandom.current().nextInt(jitter + 1) : 0);
+        }
+    }
+
+    /**
+     * A zone, with its records and every name that exists in it (owners of records and the
+     * names between them and the zone).
+     */
+    private static class Zone {
+        private final DomainName name;
+        private final List<Server> servers = new ArrayList<>();
+        private final Map<DNSNode, List<ZoneRecord>> records = new HashMap<>();
+        private final Set<DomainName> names = new HashSet<>();
+
+        private Zone(DomainName name) {
+            this.name = name;
+            names.add(name);
+        }
+
+        private void add(ZoneRecord record) {
+            records.computeIfAbsent(new DNSNode(record.name, record.type), node -> new ArrayList<>()).add(record);
+            for (DomainName owner = record.name; !owner.equals(name); owner = owner.getParent())
+                names.add(owner);
+        }
+
+        private List<ZoneRecord> get(DomainName owner, RecordType type) {
+            List<ZoneRecord> found = records.get(new DNSNode(owner, type));
+            return found != null ? found : new ArrayList<>();
+        }
+
+        private List<ZoneRecord> getAddresses(DomainName owner) {
+            List<ZoneRecord> addresses = new ArrayList<>(get(owner, RecordType.A));
+            addresses.addAll(get(owner, RecordType.AAAA));
+            return addresses;
+        }
+
+        /**
+         * Returns the zone cut closest to this zone on the way to a name (a name below the zone
+         * with NS records), or null if the name is not below a delegation.
+         */
+        private DomainName findDelegation(DomainName qname) {
+            DomainName cut = null;
+            for (DomainName owner = qname; owner != null && !owner.equals(name); owner = owner.getParent())
+                if (records.containsKey(new DNSNode(owner, RecordType.NS)))
+                    cut = owner;
+            return cut;
+        }
+    }
+
+    /**
+     * A record of a zone: an address (A or AAAA) or a name (NS or CNAME).
+     */
+    private static class ZoneRecord {
+        private final DomainName name;
+        private final RecordType type;
+        private final int ttl;
+        private final byte[] address;
+        private final DomainName target;
+
+        private ZoneRecord(DomainName name, RecordType type, int ttl, byte[] address, DomainName target) {
+            this.name = name;
+            this.type = type;
+            this.ttl = ttl;
+            this.address = address;
+            this.target = target;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel, used to find elements whose expiration time has passed without
+ * scanning the elements that have not expired. Time is divided into ticks of a fixed length.
+ * The first level has one slot per tick for the next 64 ticks, and each following level has
+ * slots 64 times as long as the previous one. Elements are moved to a lower level when the
+ * wheel reaches their slot, so scheduling, cancelling and expiring an element are all
+ * amortized O(1).
+ *
+ * Elements are expired when the wheel reaches the tick their expiration time falls in, so they
+ * may be reported as expired up to one tick early, but never late. This class is not
+ * thread-safe; callers must synchronize access to it.
+ *
+ * @param <E> Type of the elements being scheduled.
+ */
+public class TimerWheel<E> {
+
+    private static final int LEVELS = 6;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private final long tickMillis;
+    private final Timer<E>[][] wheel;
+    private long currentTick;
+    private int size;
+
+    /**
+     * Creates an empty timing wheel.
+     *
+     * @param tickMillis Length of a tick, in milliseconds.
+     * @param now        Current time, in milliseconds since the epoch.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimerWheel(long tickMillis, long now) {
+        this.tickMillis = tickMillis;
+        this.wheel = new Timer[LEVELS][SLOTS];
+        this.currentTick = now / tickMillis;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the time at which advance() will next have a tick to process.
+     *
+     * @return A time, in milliseconds since the epoch.
+     */
+    public long nextTickTime() {
+        return (currentTick + 1) * tickMillis;
+    }
+
+    /**
+     * Schedules an element to expire at a specific time. Elements whose expiration time falls
+     * in a tick that was already processed are not scheduled.
+     *
+     * @param element   Element to be scheduled.
+     * @param expiresAt Time at which the element expires, in milliseconds since the epoch.
+     * @return A timer that can be used to cancel the expiration, or null if the element has
+     * already expired.
+     */
+    public Timer<E> schedule(E element, long expiresAt) {
+        long tick = expiresAt / tickMillis;
+        if (tick <= currentTick)
+            return null;
+        Timer<E> timer = new Timer<>(element, tick);
+        place(timer);
+        size++;
+        return timer;
+    }
+
+    /**
+     * Removes a timer from the wheel, so its element is not reported as expired. Timers that
+     * already expired or were already cancelled are ignored.
+     *
+     * @param timer Timer returned by schedule().
+     */
+    public void cancel(Timer<E> timer) {
+        if (timer.level < 0)
+            return;
+        if (timer.prev == null)
+            wheel[timer.level][timer.slot] = timer.next;
+        else
+            timer.prev.next = timer.next;
+        if (timer.next != null)
+            timer.next.prev = timer.prev;
+        timer.unlink();
+        size--;
+    }
+
+    /**
+     * Moves the wheel forward to a specific time, passing to the consumer every element that
+     * expires up to the end of the tick that time falls in.
+     *
+     * @param now      Time the wheel should be moved to, in milliseconds since the epoch.
+     * @param onExpire Action performed for each expired element.
+     */
+    public void advance(long now, Consumer<E> onExpire) {
+        long targetTick = now / tickMillis;
+        if (size == 0) {
+            currentTick = Math.max(currentTick, targetTick);
+            return;
+        }
+        while (currentTick < targetTick && size > 0) {
+            currentTick++;
+            cascade();
+            int slot = (int) (currentTick & SLOT_MASK);
+            Timer<E> timer = wheel[0][slot];
+            wheel[0][slot] = null;
+            while (timer != null) {
+                Timer<E> next = timer.next;
+                timer.unlink();
+                size--;
+                onExpire.accept(timer.element);
+                timer = next;
+            }
+        }
+        currentTick = Math.max(currentTick, targetTick);
+    }
+
+    /**
+     * Moves the elements of every higher level slot that starts at the current tick down to the
+     * lower levels, starting from the highest level so they can cascade more than once.
+     */
+    private void cascade() {
+        int level = 1;
+        while (level < LEVELS && (currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0)
+            level++;
+        for (level--; level >= 1; level--) {
+            int slot = (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+            Timer<E> timer = wheel[level][slot];
+            wheel[level][slot] = null;
+            while (timer != null) {
+                Timer<E> next = timer.next;
+                place(timer);
+                timer = next;
+            }
+        }
+    }
+
+    /**
+     * Adds a timer to the lowest level whose slots do not wrap around before its tick. Ticks
+     * too far in the future are placed in the last slot of the highest level, and placed again
+     * when the wheel reaches it.
+     */
+    private void place(Timer<E> timer) {
+        int level = 0;
+        while (level < LEVELS - 1
+                && (timer.tick >>> (SLOT_BITS * level)) - (currentTick >>> (SLOT_BITS * level)) >= SLOTS)
+            level++;
+        long slotTick = timer.tick >>> (SLOT_BITS * level);
+        long maxTick = (currentTick >>> (SLOT_BITS * level)) + SLOT_MASK;
+        int slot = (int) (Math.min(slotTick, maxTick) & SLOT_MASK);
+
+        timer.level = level;
+        timer.slot = slot;
+        timer.prev = null;
+        timer.next = wheel[level][slot];
+        if (timer.next != null)
+            timer.next.prev = timer;
+        wheel[level][slot] = timer;
+    }
+
+    /**
+     * An element scheduled in the wheel.
+     *
+     * @param <E> Type of the element.
+     */
+    public static class Timer<E> {
+        private final E element;
+        private final long tick;
+        private int level = -1; // -1 when not in the wheel
+        private int slot;
+        private Timer<E> prev;
+        private Timer<E> next;
+
+        private Timer(E element, long tick) {
+            this.element = element;
+            this.tick = tick;
+        }
+
+        public E getElement() {
+            return element;
+        }
+
+        private void unlink() {
+            level = -1;
+            prev = null;
+            next = null;
+        }
+    }
+}
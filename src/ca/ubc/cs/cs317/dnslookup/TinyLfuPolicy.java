@@ -0,0 +1,209 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which keys a size-bounded cache keeps, using the W-TinyLFU policy. New keys enter a
+ * small LRU window (1% of the capacity, but at least 16 keys). Keys leaving the window are only
+ * admitted into the main area if they were used more often, according to a frequency sketch, than
+ * the key the main area would have to evict. The main area is a segmented LRU: keys start in a
+ * probation segment and move to a protected segment (80% of the main area) when used again.
+ *
+ * Keys used only once therefore rarely displace keys used many times, while a key that becomes
+ * popular quickly gains the frequency needed to be admitted. This class is not thread-safe.
+ *
+ * @param <K> Type of the keys being tracked.
+ */
+public class TinyLfuPolicy<K> {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final Map<K, Node<K>> nodes = new HashMap<>();
+    private final FrequencySketch sketch;
+    private final Node<K>[] segments;
+    private final int[] segmentSizes = new int[3];
+
+    private int maximumSize;
+    private int maximumWindowSize;
+    private int maximumProtectedSize;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TinyLfuPolicy(int maximumSize) {
+        this.sketch = new FrequencySketch(maximumSize);
+        this.segments = new Node[3];
+        for (int i = 0; i < segments.length; i++)
+            segments[i] = new Node<>(null, i);
+        setSizes(maximumSize);
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Changes the capacity of the policy.
+     *
+     * @param maximumSize New maximum number of keys.
+     * @return The keys that must be evicted to fit the new capacity.
+     */
+    public List<K> setMaximumSize(int maximumSize) {
+        setSizes(maximumSize);
+        sketch.ensureCapacity(maximumSize);
+        return evict();
+    }
+
+    /**
+     * Records a use of a key. Keys not tracked by the policy still have their frequency
+     * increased, which helps them be admitted if they are added later.
+     */
+    public void onAccess(K key) {
+        sketch.increment(key);
+        Node<K> node = nodes.get(key);
+        if (node == null)
+            return;
+
+        if (node.segment == PROBATION) {
+            moveToTail(node, PROTECTED);
+            while (segmentSizes[PROTECTED] > maximumProtectedSize)
+                moveToTail(segments[PROTECTED].next, PROBATION);
+        } else {
+            moveToTail(node, node.segment);
+        }
+    }
+
+    /**
+     * Starts tracking a key added to the cache. Adding a key that is already tracked counts as
+     * a use of that key.
+     *
+     * @return The keys that must be evicted from the cache to respect its capacity. This may
+     * include the key just added, if it was not admitted.
+     */
+    public List<K> onInsert(K key) {
+        if (nodes.containsKey(key)) {
+            onAccess(key);
+            return Collections.emptyList();
+        }
+        sketch.increment(key);
+        Node<K> node = new Node<>(key, WINDOW);
+        nodes.put(key, node);
+        link(node, WINDOW);
+        return evict();
+    }
+
+    /**
+     * Stops tracking a key that was removed from the cache for other reasons, e.g., because
+     * all its records expired.
+     */
+    public void onRemove(K key) {
+        Node<K> node = nodes.remove(key);
+        if (node != null)
+            unlink(node);
+    }
+
+    /**
+     * Moves keys out of the window while it is over capacity, and evicts keys while the policy
+     * is over capacity. A key leaving the window competes with the least recently used key of
+     * the main area, and the one with the lower frequency is evicted.
+     */
+    private List<K> evict() {
+        List<K> evicted = new ArrayList<>(0);
+
+        while (segmentSizes[WINDOW] > maximumWindowSize) {
+            Node<K> candidate = segments[WINDOW].next;
+            moveToTail(candidate, PROBATION);
+            if (nodes.size() <= maximumSize)
+                continue;
+
+            Node<K> victim = mainVictim(candidate);
+            if (victim != null && sketch.frequency(candidate.key) > sketch.frequency(victim.key))
+                remove(victim, evicted);
+            else
+                remove(candidate, evicted);
+        }
+
+        // only happens if the capacity was reduced
+        while (nodes.size() > maximumSize) {
+            Node<K> victim = mainVictim(null);
+            remove(victim != null ? victim : segments[WINDOW].next, evicted);
+        }
+        return evicted;
+    }
+
+    /**
+     * Returns the key the main area would evict: the least recently used key in probation, or
+     * in the protected segment if probation has no other key.
+     *
+     * @param candidate Key that is competing for a place, and should not be returned.
+     * @return The victim, or null if the main area has no key other than the candidate.
+     */
+    private Node<K> mainVictim(Node<K> candidate) {
+        Node<K> victim = segments[PROBATION].next;
+        if (victim == candidate)
+            victim = victim.next;
+        if (victim == segments[PROBATION])
+            victim = segments[PROTECTED].next;
+        return victim == segments[PROTECTED] ? null : victim;
+    }
+
+    private void remove(Node<K> node, List<K> evicted) {
+        evicted.add(node.key);
+        nodes.remove(node.key);
+        unlink(node);
+    }
+
+    private void setSizes(int maximumSize) {
+        this.maximumSize = Math.max(maximumSize, 1);
+        // keep room for the nodes added by a single response, so they are read before competing
+        this.maximumWindowSize = Math.max(Math.min(Math.max(this.maximumSize / 100, 16), this.maximumSize / 2), 1);
+        this.maximumProtectedSize = (int) (0.8 * (this.maximumSize - maximumWindowSize));
+    }
+
+    private void moveToTail(Node<K> node, int segment) {
+        unlink(node);
+        link(node, segment);
+    }
+
+    private void link(Node<K> node, int segment) {
+        Node<K> head = segments[segment];
+        node.segment = segment;
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+        segmentSizes[segment]++;
+    }
+
+    private void unlink(Node<K> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        segmentSizes[node.segment]--;
+    }
+
+    /**
+     * A key in one of the LRU lists. Each list is circular, with a sentinel node whose next
+     * node is the least recently used key and whose previous node is the most recently used.
+     */
+    private static class Node<K> {
+        private final K key;
+        private int segment;
+        private Node<K> prev = this;
+        private Node<K> next = this;
+
+        private Node(K key, int segment) {
+            this.key = key;
+            this.segment = segment;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CacheSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String longText() {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 70000) // longer than a short length could describe
+            text.append("ns1.example.com. hostmaster.example.com. ");
+        return text.toString();
+    }
+
+    private static List<ResourceRecord> sampleRecords() {
+        DomainName www = DomainName.of("www.example.com");
+        List<ResourceRecord> records = new ArrayList<>();
+        records.add(new ResourceRecord(www, RecordType.A, 300, new byte[]{10, 0, 0, 1}));
+        records.add(new ResourceRecord(www, RecordType.A, 300, new byte[]{10, 0, 0, 2}));
+        records.add(new ResourceRecord(www, RecordType.AAAA, 600,
+                new byte[]{0x20, 0x01, 0x0d, (byte) 0xb8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1}));
+        records.add(new ResourceRecord(DomainName.of("example.com"), RecordType.NS, 86400, DomainName.of("ns1.example.com")));
+        records.add(new ResourceRecord(DomainName.of("alias.example.com"), RecordType.CNAME, 60, www));
+        records.add(new ResourceRecord(DomainName.of("example.com"), RecordType.MX, 3600, "10 mail.example.com"));
+        records.add(new ResourceRecord(DomainName.of("example.com"), RecordType.SOA, 3600, longText()));
+        records.add(new ResourceRecord(DomainName.of("txt.example.com"), RecordType.OTHER, 3600, "données ünïcödé"));
+        return records;
+    }
+
+    @Test
+    public void loadRestoresRecordsAndNegativeResults() throws IOException {
+        DNSCache cache = new DNSCache(1000);
+        List<ResourceRecord> records = sampleRecords();
+        for (ResourceRecord record : records)
+            cache.addResult(record);
+        DNSNode missing = new DNSNode("missing.example.com", RecordType.A);
+        DNSNode noData = new DNSNode("www.example.com", RecordType.MX);
+        cache.addNegativeResult(new NegativeResult(missing, 300, true));
+        cache.addNegativeResult(new NegativeResult(noData, 120, false));
+
+        Path file = folder.getRoot().toPath().resolve("cache.snapshot");
+        assertEquals(records.size() + 2, CacheSnapshot.save(cache, file));
+        assertFalse("temporary file left behind", Files.exists(file.resolveSibling("cache.snapshot.tmp")));
+
+        DNSCache loaded = new DNSCache(1000);
+        assertEquals(records.size() + 2, CacheSnapshot.load(loaded, file));
+
+        for (ResourceRecord record : records) {
+            Set<ResourceRecord> results = loaded.getCachedResults(record.getNode());
+            assertTrue("missing " + record.getNode() + " " + record.getTextResult(), results.contains(record));
+            for (ResourceRecord result : results) {
+                if (result.equals(record)) {
+                    assertEquals(record.getExpirationTime(), result.getExpirationTime());
+                    assertEquals(record.getTextResult(), result.getTextResult());
+                }
+            }
+        }
+        ResourceRecord cname = loaded.getCachedResults(new DNSNode("alias.example.com", RecordType.CNAME)).iterator().next();
+        assertTrue("name results are interned", cname.getNameResult() == DomainName.of("www.example.com"));
+
+        NegativeResult nameError = loaded.getNegativeResult(missing);
+        assertNotNull(nameError);
+        assertTrue(nameError.isNameError());
+        NegativeResult noDataResult = loaded.getNegativeResult(noData);
+        assertNotNull(noDataResult);
+        assertFalse(noDataResult.isNameError());
+    }
+
+    @Test
+    public void loadSkipsRecordsExpiredSinceSave() throws Exception {
+        DNSCache cache = new DNSCache(1000);
+        ResourceRecord shortLived = new ResourceRecord(DomainName.of("short.example.com"), RecordType.A, 0, new byte[]{10, 0, 0, 3});
+        shortLived.setExpirationTime(System.currentTimeMillis() + 200);
+        ResourceRecord longLived = new ResourceRecord(DomainName.of("long.example.com"), RecordType.A, 3600, new byte[]{10, 0, 0, 4});
+        cache.addResult(shortLived);
+        cache.addResult(longLived);
+        DNSNode negative = new DNSNode("gone.example.com", RecordType.A);
+        cache.addNegativeResult(NegativeResult.expiringAt(negative, System.currentTimeMillis() + 200, true));
+
+        Path file = folder.getRoot().toPath().resolve("cache.snapshot");
+        assertEquals(3, CacheSnapshot.save(cache, file));
+        Thread.sleep(300);
+
+        DNSCache loaded = new DNSCache(1000);
+        assertEquals(1, CacheSnapshot.load(loaded, file));
+        assertEquals(Collections.singleton(longLived), loaded.getCachedResults(longLived.getNode()));
+        assertTrue(loaded.getCachedResults(shortLived.getNode()).isEmpty());
+        assertNull(loaded.getNegativeResult(negative));
+    }
+
+    @Test
+    public void loadRejectsOtherFiles() throws IOException {
+        Path notSnapshot = folder.newFile("hosts").toPath();
+        Files.write(notSnapshot, "127.0.0.1 localhost\n".getBytes("US-ASCII"));
+        assertLoadFails(notSnapshot);
+
+        DNSCache cache = new DNSCache(1000);
+        for (ResourceRecord record : sampleRecords())
+            cache.addResult(record);
+        Path file = folder.getRoot().toPath().resolve("cache.snapshot");
+        CacheSnapshot.save(cache, file);
+        byte[] bytes = Files.readAllBytes(file);
+        Path truncated = folder.getRoot().toPath().resolve("truncated.snapshot");
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length / 2));
+        assertLoadFails(truncated);
+    }
+
+    private static void assertLoadFails(Path file) {
+        try {
+            CacheSnapshot.load(new DNSCache(1000), file);
+            fail("loaded " + file);
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+}
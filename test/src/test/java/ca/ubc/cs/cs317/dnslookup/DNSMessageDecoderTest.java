@@ -0,0 +1,37 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class DNSMessageDecoderTest {
+
+    private static final byte[] IPV6 = {0x20, 0x01, 0x0d, (byte) 0xb8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1};
+
+    @Test
+    public void skipsAddressesOfTheWrongLengthForTheirType() {
+        DNSResponseWriter writer = new DNSResponseWriter(0x1234, DNSResponseWriter.AUTHORITATIVE, "www.example.com",
+                RecordType.A.getCode());
+        writer.address(DNSResponseWriter.ANSWER, "www.example.com", 300, IPV6);
+        writer.address(DNSResponseWriter.ANSWER, "www.example.com", 300, new byte[]{10, 0, 0, 1});
+        writer.address(DNSResponseWriter.ADDITIONAL, "ns1.example.com", 300, new byte[]{10, 0, 0, 53});
+        ByteBuffer response = writer.toBuffer();
+        // turn the first answer into an A record with 16 bytes of data; its name is a pointer
+        int questionEnd = 12 + DomainName.of("www.example.com").getWireLength() + 4;
+        response.putShort(questionEnd + 2, (short) RecordType.A.getCode());
+
+        DNSMessage message = new DNSMessageDecoder().reset(response).decode();
+        assertEquals(1, message.getAnswerRRs().size());
+        assertEquals("10.0.0.1", message.getAnswerRRs().get(0).getTextResult());
+        // the records after the malformed one are still decoded
+        assertEquals(1, message.getAdditionalRRs().size());
+        assertEquals("10.0.0.53", message.getAdditionalRRs().get(0).getTextResult());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnIpv4AddressInAnAaaaRecord() {
+        new ResourceRecord(DomainName.of("www.example.com"), RecordType.AAAA, 300, new byte[]{10, 0, 0, 1});
+    }
+}
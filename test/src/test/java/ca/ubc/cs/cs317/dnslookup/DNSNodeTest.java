@@ -0,0 +1,45 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DNSNodeTest {
+
+    @Test
+    public void hashDependsOnlyOnNameAndTypeCode() {
+        DNSNode node = new DNSNode("WWW.Example.com.", RecordType.A);
+        assertEquals(31 * DomainName.of("www.example.com").hashCode() + RecordType.A.getCode(), node.hashCode());
+        assertEquals(new DNSNode("www.example.com", RecordType.A), node);
+        assertNotEquals(new DNSNode("www.example.com", RecordType.AAAA), node);
+    }
+
+    @Test
+    public void deserializedNodesAreFoundInHashSets() throws IOException, ClassNotFoundException {
+        DNSNode node = new DNSNode("www.example.com", RecordType.NS);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(node);
+        }
+        DNSNode copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (DNSNode) in.readObject();
+        }
+
+        assertEquals(node, copy);
+        assertEquals(node.hashCode(), copy.hashCode());
+        Set<DNSNode> set = new HashSet<>();
+        set.add(node);
+        assertTrue(set.contains(copy));
+    }
+}
@@ -0,0 +1,66 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrequencySketchTest {
+
+    @Test
+    public void countsUsesUpToFifteen() {
+        FrequencySketch sketch = new FrequencySketch(1000);
+        String element = "www.example.com";
+        assertEquals(0, sketch.frequency(element));
+        for (int i = 1; i <= 20; i++) {
+            sketch.increment(element);
+            assertEquals(Math.min(i, 15), sketch.frequency(element));
+        }
+    }
+
+    @Test
+    public void neverUnderestimatesBeforeAReset() {
+        int size = 4096;
+        FrequencySketch sketch = new FrequencySketch(size);
+        Random random = new Random(5);
+        int[] counts = new int[size];
+        for (int i = 0; i < 5 * size; i++) { // below the 10 * size uses that trigger a reset
+            int element = (int) (Math.pow(random.nextDouble(), 2) * size);
+            sketch.increment(element);
+            counts[element]++;
+        }
+        int exact = 0;
+        for (int element = 0; element < size; element++) {
+            int frequency = sketch.frequency(element);
+            assertTrue("element " + element, frequency >= Math.min(counts[element], 15));
+            if (frequency == Math.min(counts[element], 15))
+                exact++;
+        }
+        assertTrue("only " + exact + " exact estimates", exact > size * 0.9);
+    }
+
+    @Test
+    public void halvesFrequenciesAfterTheSampleSize() {
+        FrequencySketch sketch = new FrequencySketch(16); // resets after 160 uses
+        String popular = "popular";
+        for (int i = 0; i < 14; i++)
+            sketch.increment(popular);
+        assertEquals(14, sketch.frequency(popular));
+        // only uses that raise a counter count towards the sample, so use distinct elements
+        for (int i = 0; i < 146; i++)
+            sketch.increment("other" + i);
+        assertEquals(7, sketch.frequency(popular));
+    }
+
+    @Test
+    public void resizingForgetsFrequencies() {
+        FrequencySketch sketch = new FrequencySketch(100);
+        sketch.increment("a");
+        sketch.ensureCapacity(120); // same table size
+        assertEquals(1, sketch.frequency("a"));
+        sketch.ensureCapacity(100000);
+        assertEquals(0, sketch.frequency("a"));
+    }
+}
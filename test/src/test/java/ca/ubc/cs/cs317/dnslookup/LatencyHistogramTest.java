@@ -0,0 +1,86 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0, histogram.getMaxValue());
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 50; value++)
+            histogram.record(value);
+        histogram.record(-5); // recorded as 0
+        assertEquals(51, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(0));
+        assertEquals(25, histogram.getValueAtPercentile(50));
+        assertEquals(50, histogram.getValueAtPercentile(100));
+        assertEquals(50, histogram.getMaxValue());
+    }
+
+    @Test
+    public void percentilesAreWithinThreePercent() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(11);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextGaussian() * 2 + 8); // microseconds to seconds
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double percentile : new double[]{1, 10, 50, 90, 99, 99.9, 99.99}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long reported = histogram.getValueAtPercentile(percentile);
+            assertTrue("p" + percentile + ": " + reported + " for " + exact,
+                    reported >= exact && reported <= exact * 1.032);
+        }
+        assertEquals(values[values.length - 1], histogram.getMaxValue());
+        assertEquals(values[values.length - 1], histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void largeValuesKeepTheirMagnitude() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(1L << 40);
+        long median = histogram.getValueAtPercentile(50);
+        assertTrue(median >= 1L << 40 && median <= (long) ((1L << 40) * 1.032));
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void concurrentRecordingsAreAllCounted() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            long value = 1000 * (t + 1);
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100000; i++)
+                    histogram.record(value);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(400000, histogram.getCount());
+        assertEquals(4000, histogram.getMaxValue());
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+}
@@ -0,0 +1,164 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapRecordStoreTest {
+
+    private static final int TABLE_BYTES = 4096 * 16; // initial capacity of the table, 16 bytes per slot
+
+    private static DNSNode node(int i) {
+        return new DNSNode("host" + i + ".example.com", RecordType.A);
+    }
+
+    private static Set<ResourceRecord> addresses(DNSNode node, int version, int count) {
+        Set<ResourceRecord> records = new HashSet<>();
+        for (int i = 0; i < count; i++)
+            records.add(new ResourceRecord(node.getName(), node.getType(), 300,
+                    new byte[]{10, (byte) version, (byte) (version >> 8), (byte) i}));
+        return records;
+    }
+
+    @Test
+    public void putThenGetReturnsEveryKindOfResult() {
+        OffHeapRecordStore store = new OffHeapRecordStore();
+        DNSNode a = new DNSNode("www.example.com", RecordType.A);
+        DNSNode aaaa = new DNSNode("www.example.com", RecordType.AAAA);
+        DNSNode ns = new DNSNode("example.com", RecordType.NS);
+        DNSNode mx = new DNSNode("example.com", RecordType.MX);
+        Set<ResourceRecord> aRecords = addresses(a, 1, 3);
+        Set<ResourceRecord> aaaaRecords = Collections.singleton(new ResourceRecord(aaaa.getName(), RecordType.AAAA, 600,
+                new byte[]{0x20, 0x01, 0x0d, (byte) 0xb8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1}));
+        Set<ResourceRecord> nsRecords = new HashSet<>();
+        nsRecords.add(new ResourceRecord(ns.getName(), RecordType.NS, 86400, DomainName.of("ns1.example.com")));
+        nsRecords.add(new ResourceRecord(ns.getName(), RecordType.NS, 86400, DomainName.of("ns2.example.net")));
+        Set<ResourceRecord> mxRecords = Collections.singleton(new ResourceRecord(mx.getName(), RecordType.MX, 3600, "10 mail.example.com"));
+
+        store.put(a, aRecords);
+        store.put(aaaa, aaaaRecords);
+        store.put(ns, nsRecords);
+        store.put(mx, mxRecords);
+
+        assertEquals(4, store.size());
+        assertEquals(aRecords, store.get(a));
+        assertEquals(aaaaRecords, store.get(aaaa));
+        assertEquals(nsRecords, store.get(ns));
+        assertEquals(mxRecords, store.get(mx));
+        assertNull(store.get(new DNSNode("www.example.com", RecordType.CNAME)));
+        assertFalse(store.containsKey(new DNSNode("example.com", RecordType.A)));
+
+        ResourceRecord expected = aaaaRecords.iterator().next();
+        ResourceRecord stored = store.get(aaaa).iterator().next();
+        assertEquals(expected.getExpirationTime(), stored.getExpirationTime());
+        assertEquals(expected.getTextResult(), stored.getTextResult());
+    }
+
+    @Test
+    public void putReplacesAndRemoveForgetsEntries() {
+        OffHeapRecordStore store = new OffHeapRecordStore();
+        DNSNode node = node(1);
+        store.put(node, addresses(node, 1, 2));
+        Set<ResourceRecord> replacement = addresses(node, 2, 1);
+        store.put(node, replacement);
+        assertEquals(1, store.size());
+        assertEquals(replacement, store.get(node));
+
+        assertTrue(store.remove(node));
+        assertFalse(store.remove(node));
+        assertEquals(0, store.size());
+        assertNull(store.get(node));
+    }
+
+    @Test
+    public void randomOperationsMatchAHashMap() {
+        // enough keys for long probe sequences, to exercise the backward shift of removals and
+        // the resizing of the table
+        OffHeapRecordStore store = new OffHeapRecordStore(1 << 16);
+        Map<DNSNode, Set<ResourceRecord>> expected = new HashMap<>();
+        Random random = new Random(317);
+        for (int operation = 0; operation < 200000; operation++) {
+            DNSNode node = node(random.nextInt(5000));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(node) != null, store.remove(node));
+            } else {
+                Set<ResourceRecord> records = addresses(node, operation, 1 + random.nextInt(3));
+                store.put(node, records);
+                expected.put(node, records);
+            }
+            if (operation % 10000 == 0)
+                assertSameContent(expected, store);
+        }
+        assertSameContent(expected, store);
+
+        for (DNSNode node : new HashSet<>(expected.keySet())) {
+            assertTrue(store.remove(node));
+            expected.remove(node);
+        }
+        assertEquals(0, store.size());
+        for (int i = 0; i < 5000; i++)
+            assertNull(store.get(node(i)));
+    }
+
+    @Test
+    public void replacedEntriesAreCompacted() {
+        int arenaSize = 1024;
+        OffHeapRecordStore store = new OffHeapRecordStore(arenaSize);
+        for (int version = 0; version < 200; version++)
+            for (int i = 0; i < 50; i++)
+                store.put(node(i), addresses(node(i), version, 1));
+
+        // 10000 entries of about 40 bytes were appended, but only the last 50 are live
+        long arenaBytes = store.getReservedBytes() - TABLE_BYTES;
+        assertTrue("arenas use " + arenaBytes + " bytes", arenaBytes <= 8 * arenaSize);
+        for (int i = 0; i < 50; i++)
+            assertEquals(addresses(node(i), 199, 1), store.get(node(i)));
+    }
+
+    @Test
+    public void entryLargerThanAnArenaGetsItsOwn() {
+        OffHeapRecordStore store = new OffHeapRecordStore(256);
+        DNSNode small = node(1);
+        DNSNode large = node(2);
+        store.put(small, addresses(small, 1, 1));
+        Set<ResourceRecord> many = addresses(large, 1, 200);
+        store.put(large, many);
+        assertEquals(many, store.get(large));
+        assertEquals(addresses(small, 1, 1), store.get(small));
+    }
+
+    @Test
+    public void forEachVisitsEveryEntry() {
+        OffHeapRecordStore store = new OffHeapRecordStore();
+        Map<DNSNode, Set<ResourceRecord>> expected = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            expected.put(node(i), addresses(node(i), i, 2));
+            store.put(node(i), expected.get(node(i)));
+        }
+        Map<DNSNode, Set<ResourceRecord>> visited = new HashMap<>();
+        store.forEach((node, records) -> {
+            store.containsKey(node); // the action may use the store
+            visited.put(node, records);
+        });
+        assertEquals(expected, visited);
+    }
+
+    private static void assertSameContent(Map<DNSNode, Set<ResourceRecord>> expected, OffHeapRecordStore store) {
+        assertEquals(expected.size(), store.size());
+        for (Map.Entry<DNSNode, Set<ResourceRecord>> entry : expected.entrySet())
+            assertEquals(entry.getValue(), store.get(entry.getKey()));
+        Map<DNSNode, Set<ResourceRecord>> visited = new HashMap<>();
+        store.forEach(visited::put);
+        assertEquals(expected, visited);
+    }
+}
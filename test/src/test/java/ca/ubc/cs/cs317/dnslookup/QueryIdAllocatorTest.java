@@ -0,0 +1,74 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.junit.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueryIdAllocatorTest {
+
+    @Test
+    public void allocatesEveryIdOnceThenRunsOut() {
+        QueryIdAllocator allocator = new QueryIdAllocator();
+        boolean[] seen = new boolean[QueryIdAllocator.ID_COUNT];
+        for (int i = 0; i < QueryIdAllocator.ID_COUNT; i++) {
+            int id = allocator.allocate();
+            assertTrue(id >= 0 && id < QueryIdAllocator.ID_COUNT);
+            assertFalse("allocated twice: " + id, seen[id]);
+            seen[id] = true;
+        }
+        assertEquals(QueryIdAllocator.ID_COUNT, allocator.getAllocatedCount());
+        assertEquals(-1, allocator.allocate());
+
+        allocator.release(1234);
+        assertEquals(1234, allocator.allocate());
+    }
+
+    @Test
+    public void releasingAFreeIdHasNoEffect() {
+        QueryIdAllocator allocator = new QueryIdAllocator();
+        int id = allocator.allocate();
+        allocator.release(id);
+        allocator.release(id);
+        allocator.release((id + 1) % QueryIdAllocator.ID_COUNT);
+        assertEquals(0, allocator.getAllocatedCount());
+        for (int i = 0; i < QueryIdAllocator.ID_COUNT; i++)
+            assertTrue(allocator.allocate() >= 0);
+        assertEquals(-1, allocator.allocate());
+    }
+
+    @Test
+    public void concurrentQueriesNeverShareAnId() throws InterruptedException {
+        QueryIdAllocator allocator = new QueryIdAllocator();
+        AtomicIntegerArray inUse = new AtomicIntegerArray(QueryIdAllocator.ID_COUNT);
+        AtomicBoolean shared = new AtomicBoolean();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                int[] held = new int[64];
+                for (int round = 0; round < 2000; round++) {
+                    int count = 1 + ThreadLocalRandom.current().nextInt(held.length);
+                    for (int i = 0; i < count; i++) {
+                        held[i] = allocator.allocate();
+                        if (!inUse.compareAndSet(held[i], 0, 1))
+                            shared.set(true);
+                    }
+                    for (int i = 0; i < count; i++) {
+                        inUse.set(held[i], 0);
+                        allocator.release(held[i]);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertFalse(shared.get());
+        assertEquals(0, allocator.getAllocatedCount());
+    }
+}
@@ -0,0 +1,198 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Resolutions against the sample hierarchy of zones/simulated.zone, and the responses of its
+ * servers.
+ */
+public class SimulatedHierarchyTest {
+
+    private static final int PORT = 5399;
+
+    private static SimulatedHierarchy hierarchy;
+    private static final DNSCache cache = DNSCache.getInstance();
+
+    @BeforeClass
+    public static void startHierarchy() throws IOException {
+        hierarchy = SimulatedHierarchy.start(Paths.get("../zones/simulated.zone"), PORT);
+        DNSLookupService.start(hierarchy.getRootServer(), PORT);
+    }
+
+    @AfterClass
+    public static void stopHierarchy() throws IOException {
+        DNSLookupService.stop();
+        hierarchy.close();
+    }
+
+    @Test
+    public void referralCarriesGlueForNameServersInTheDelegatingZone() throws IOException {
+        DNSMessage response = query("127.0.0.2", new DNSNode("www.example.com", RecordType.A));
+        assertEquals(0, response.getAA());
+        assertEquals(0, response.getAnCount());
+        assertEquals(1, response.getAuthorityRRs().size());
+        assertEquals(DomainName.of("ns1.example.com"), response.getAuthorityRRs().get(0).getNameResult());
+        assertEquals(1, response.getAdditionalRRs().size());
+        assertEquals("127.0.0.3", response.getAdditionalRRs().get(0).getTextResult());
+    }
+
+    @Test
+    public void referralWithoutGlueHasAnEmptyAdditionalSection() throws IOException {
+        DNSMessage response = query("127.0.0.2", new DNSNode("www.noglue.com", RecordType.A));
+        assertEquals(0, response.getAA());
+        assertEquals(1, response.getAuthorityRRs().size());
+        assertEquals(DomainName.of("ns1.example.net"), response.getAuthorityRRs().get(0).getNameResult());
+        assertEquals(0, response.getArCount());
+    }
+
+    @Test
+    public void resolvesThroughADelegationWithoutGlue() {
+        assertEquals(addresses("10.0.0.9"), addressesOf(resolve("www.noglue.com", RecordType.A)));
+        // the address of the name server had to be looked up separately
+        assertEquals(addresses("127.0.0.3"),
+                addressesOf(cache.getCachedResults(new DNSNode("ns1.example.net", RecordType.A))));
+    }
+
+    @Test
+    public void followsCnameChains() {
+        assertEquals(addresses("10.0.0.1"), addressesOf(resolve("chain.example.com", RecordType.A)));
+        assertEquals(addresses("10.0.3.1"), addressesOf(resolve("away.example.com", RecordType.A)));
+        assertTrue(resolve("dangling.example.com", RecordType.A).isEmpty());
+    }
+
+    @Test
+    public void retransmitsQueriesLostByTheServer() {
+        // the loss of the lossy server is seeded by its name: it ignores the first query it
+        // receives and answers the second, sent once the initial timeout of one second expires
+        long start = System.nanoTime();
+        assertEquals(addresses("10.0.1.1"), addressesOf(resolve("www.lossy.com", RecordType.A)));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+    }
+
+    @Test
+    public void movesOnFromServersThatRefuseToAnswer() {
+        // whichever server of lame.com is queried first, the refusal is not taken as the answer,
+        // and the other server is queried without waiting for a retransmission timeout
+        long start = System.nanoTime();
+        assertEquals(addresses("10.0.4.1"), addressesOf(resolve("www.lame.com", RecordType.A)));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+    }
+
+    @Test
+    public void retriesWithoutEdnsWhenTheServerRejectsIt() {
+        assertEquals(addresses("10.0.5.1"), addressesOf(resolve("www.old.com", RecordType.A)));
+        // the FORMERR is never taken as the answer, so negative answers are cached as usual
+        DNSNode node = new DNSNode("www.old.com", RecordType.AAAA);
+        assertTrue(DNSLookupService.resolve(node).isEmpty());
+        assertNotNull(cache.getNegativeResult(node));
+    }
+
+    @Test
+    public void retriesTruncatedResponsesOverTcp() {
+        assertEquals(addresses("10.0.2.1", "10.0.2.2", "10.0.2.3"), addressesOf(resolve("www.big.com", RecordType.A)));
+    }
+
+    @Test
+    public void cachesNameErrors() {
+        DNSNode node = new DNSNode("nx.example.com", RecordType.A);
+        ResolutionContext first = new ResolutionContext(node.getName());
+        assertTrue(DNSLookupService.resolve(first, node).isEmpty());
+        assertTrue(first.hasMissedCache());
+
+        NegativeResult negative = cache.getNegativeResult(node);
+        assertNotNull(negative);
+        assertTrue(negative.isNameError());
+        assertTrue(negative.getTTL() > 0 && negative.getTTL() <= 300); // MINIMUM of the SOA
+
+        // answered from the negative result, without querying the servers again
+        ResolutionContext second = new ResolutionContext(node.getName());
+        assertTrue(DNSLookupService.resolve(second, node).isEmpty());
+        assertFalse(second.hasMissedCache());
+    }
+
+    @Test
+    public void cachesNoDataAnswers() {
+        DNSNode node = new DNSNode("www.example.com", RecordType.MX);
+        assertTrue(DNSLookupService.resolve(node).isEmpty());
+        NegativeResult negative = cache.getNegativeResult(node);
+        assertNotNull(negative);
+        assertFalse(negative.isNameError());
+        // the name exists, so other types are still resolved
+        assertEquals(addresses("10.0.0.1"), addressesOf(resolve("www.example.com", RecordType.A)));
+    }
+
+    @Test
+    public void answersFromTheCacheOnceResolved() {
+        DNSNode node = new DNSNode("alias.example.com", RecordType.A);
+        DNSLookupService.resolve(node);
+        ResolutionContext context = new ResolutionContext(node.getName());
+        assertEquals(addresses("10.0.0.1"), addressesOf(DNSLookupService.resolve(context, node)));
+        assertFalse(context.hasMissedCache());
+    }
+
+    @Test
+    public void countsACachedLookupAsOneHit() {
+        resolve("www.example.com", RecordType.A);
+        CacheStatistics before = cache.getStatistics();
+        assertEquals(addresses("10.0.0.1"), addressesOf(resolve("www.example.com", RecordType.A)));
+        CacheStatistics after = cache.getStatistics();
+        assertEquals(1, after.getHitCount() - before.getHitCount());
+        assertEquals(0, after.getMissCount() - before.getMissCount());
+    }
+
+    private static Set<ResourceRecord> resolve(String hostName, RecordType type) {
+        return DNSLookupService.resolve(new DNSNode(hostName, type));
+    }
+
+    private static Set<String> addresses(String... addresses) {
+        Set<String> set = new HashSet<>();
+        for (String address : addresses)
+            set.add(address);
+        return set;
+    }
+
+    private static Set<String> addressesOf(Set<ResourceRecord> records) {
+        Set<String> set = new HashSet<>();
+        for (ResourceRecord record : records)
+            set.add(record.getTextResult());
+        return set;
+    }
+
+    /**
+     * Sends a query without EDNS to a single server, and decodes its response.
+     */
+    private static DNSMessage query(String server, DNSNode node) throws IOException {
+        DNSMessageEncoder encoder = new DNSMessageEncoder();
+        encoder.setEdnsBufferSize(0);
+        ByteBuffer query = ByteBuffer.allocate(DNSMessageEncoder.MAX_QUERY_SIZE);
+        encoder.encodeQuery(0x4242, node, query);
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(2000);
+            socket.send(new DatagramPacket(query.array(), query.limit(), InetAddress.getByName(server), PORT));
+            byte[] response = new byte[DNSMessageEncoder.MIN_UDP_PAYLOAD_SIZE];
+            DatagramPacket packet = new DatagramPacket(response, response.length);
+            socket.receive(packet);
+            DNSMessage message = new DNSMessageDecoder().reset(ByteBuffer.wrap(response, 0, packet.getLength())).decode();
+            assertEquals(0x4242, message.getQueryId());
+            return message;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTest {
+
+    private static final long TICK = 10;
+    private static final long START = 1_000_000 * TICK;
+
+    @Test
+    public void elementsExpireInTheirTickAcrossEveryLevel() {
+        TimerWheel<Integer> wheel = new TimerWheel<>(TICK, START);
+        Random random = new Random(4);
+        Map<Integer, Long> pending = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            // from the next tick up to 64^3 ticks ahead, so elements cascade through 3 levels
+            long expiresAt = START + TICK + (long) (Math.pow(random.nextDouble(), 3) * 64 * 64 * 64 * TICK);
+            assertNotNull(wheel.schedule(i, expiresAt));
+            pending.put(i, expiresAt);
+        }
+        assertEquals(pending.size(), wheel.size());
+
+        long now = START;
+        while (!pending.isEmpty()) {
+            now += 1 + random.nextInt((int) (64 * TICK));
+            long tick = now / TICK;
+            List<Integer> expired = new ArrayList<>();
+            wheel.advance(now, expired::add);
+            for (Integer element : expired) {
+                Long expiresAt = pending.remove(element);
+                assertNotNull("expired twice: " + element, expiresAt);
+                assertTrue("early: " + element, expiresAt / TICK <= tick);
+            }
+            for (Map.Entry<Integer, Long> entry : pending.entrySet())
+                assertTrue("late: " + entry.getKey(), entry.getValue() / TICK > tick);
+            assertEquals(pending.size(), wheel.size());
+        }
+    }
+
+    @Test
+    public void cancelledElementsNeverExpire() {
+        TimerWheel<String> wheel = new TimerWheel<>(TICK, START);
+        TimerWheel.Timer<String> near = wheel.schedule("near", START + 5 * TICK);
+        TimerWheel.Timer<String> far = wheel.schedule("far", START + 5000 * TICK);
+        wheel.schedule("kept", START + 5000 * TICK);
+        wheel.cancel(near);
+        wheel.cancel(far);
+        wheel.cancel(far); // already cancelled
+        assertEquals(1, wheel.size());
+
+        List<String> expired = new ArrayList<>();
+        wheel.advance(START + 10000 * TICK, expired::add);
+        assertEquals(1, expired.size());
+        assertEquals("kept", expired.get(0));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void elementsInAProcessedTickAreNotScheduled() {
+        TimerWheel<String> wheel = new TimerWheel<>(TICK, START);
+        assertNull(wheel.schedule("past", START - TICK));
+        assertNull(wheel.schedule("current tick", START + TICK - 1));
+        assertEquals(START + TICK, wheel.nextTickTime());
+
+        wheel.advance(START + 100 * TICK, element -> { });
+        assertEquals(START + 101 * TICK, wheel.nextTickTime());
+        assertNull(wheel.schedule("processed", START + 50 * TICK));
+        assertNotNull(wheel.schedule("next", START + 101 * TICK));
+        assertEquals(1, wheel.size());
+    }
+}